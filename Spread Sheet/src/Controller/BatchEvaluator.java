@@ -0,0 +1,262 @@
+package Controller;
+
+import Model.CellToken;
+import Model.SheetLoader;
+import Model.SheetUtility;
+import Model.Spreadsheet;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates saved spreadsheet files without a GUI, for use on servers with no display.
+ * The files are evaluated in parallel, one file per thread, and each sheet is recalculated serially.
+ * The values are written to stdout in order of the files, or to one file per sheet in an output directory.
+ * Load, parse and recalculation timings of every file are reported on stderr.
+ * Usage: [-o directory] [-c A0,B3,...] [-j threads] file...
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+public final class BatchEvaluator {
+    /** The extension given to the value files written to an output directory. */
+    public static final String VALUES_EXTENSION = ".values";
+
+    /** The usage message. */
+    private static final String USAGE = "Usage: [-o directory] [-c A0,B3,...] [-j threads] file...";
+
+    /** The # of nanoseconds in a millisecond. */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /** The sheet files to be evaluated. */
+    private final List<Path> myFiles;
+
+    /** The directory the values are written to, or null to write them to stdout. */
+    private Path myOutputDirectory;
+
+    /** The cells whose values are written, or null to write every filled cell. */
+    private List<CellToken> mySelectedCells;
+
+    /** The # of files evaluated at once. */
+    private int myThreadCount;
+
+    /**
+     * Creates an evaluator from command line arguments.
+     * @param theArgs The command line arguments.
+     * @throws IllegalArgumentException When the arguments are malformed.
+     */
+    public BatchEvaluator(final String[] theArgs) {
+        myFiles = new ArrayList<>();
+        myThreadCount = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i < theArgs.length; i++) {
+            switch (theArgs[i]) {
+                case "-o" -> myOutputDirectory = Path.of(getOption(theArgs, ++i));
+                case "-c" -> mySelectedCells = parseCells(getOption(theArgs, ++i));
+                case "-j" -> {
+                    try {
+                        myThreadCount = Integer.parseInt(getOption(theArgs, ++i));
+                    } catch (NumberFormatException theError) {
+                        throw new IllegalArgumentException("Bad thread count: " + theArgs[i]);
+                    }
+                    if (myThreadCount < 1) {
+                        throw new IllegalArgumentException("Bad thread count: " + theArgs[i]);
+                    }
+                }
+                default -> {
+                    if (theArgs[i].startsWith("-")) {
+                        throw new IllegalArgumentException("Unknown option: " + theArgs[i]);
+                    }
+                    myFiles.add(Path.of(theArgs[i]));
+                }
+            }
+        }
+
+        if (myFiles.isEmpty()) {
+            throw new IllegalArgumentException("No sheet files given");
+        }
+    }
+
+    /**
+     * Runs the evaluator from the command line.
+     * @param theArgs The command line arguments.
+     */
+    public static void main(final String[] theArgs) {
+        System.exit(run(theArgs));
+    }
+
+    /**
+     * Evaluates the files named by the command line arguments.
+     * @param theArgs The command line arguments.
+     * @return The exit status, 0 when every file was evaluated, 1 when any file failed, 2 for bad arguments.
+     */
+    public static int run(final String[] theArgs) {
+        try {
+            return new BatchEvaluator(theArgs).evaluateAll(System.out, System.err) ? 0 : 1;
+        } catch (IllegalArgumentException theError) {
+            System.err.println(theError.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+    }
+
+    /**
+     * Evaluates every file, and writes the values and timings.
+     * @param theOut The stream the values are written to when there is no output directory.
+     * @param theLog The stream the timings and errors are written to.
+     * @return True when every file was evaluated.
+     */
+    public boolean evaluateAll(final PrintStream theOut, final PrintStream theLog) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(myThreadCount, myFiles.size()));
+        List<Future<Result>> results = new ArrayList<>();
+        for (Path file : myFiles) {
+            results.add(executor.submit(() -> evaluate(file)));
+        }
+        executor.shutdown();
+
+        //Report in order of the files, so that stdout is the same from run to run.
+        boolean isSuccessful = true;
+        for (int i = 0; i < myFiles.size(); i++) {
+            try {
+                Result result = results.get(i).get();
+                if (myOutputDirectory == null) {
+                    if (myFiles.size() > 1) {
+                        theOut.println("# " + myFiles.get(i));
+                    }
+                    theOut.print(result.myValues);
+                }
+                theLog.printf("%s: load %.1f ms, parse %.1f ms, recalc %.1f ms%n", myFiles.get(i),
+                        result.myLoadNanos / NANOS_PER_MILLI, result.myParseNanos / NANOS_PER_MILLI,
+                        result.myRecalculationNanos / NANOS_PER_MILLI);
+            } catch (ExecutionException theError) {
+                //Some exceptions, such as a NullPointerException, carry no message.
+                Throwable cause = theError.getCause();
+                theLog.println(myFiles.get(i) + ": "
+                        + (cause.getMessage() != null ? cause.getMessage() : cause.toString()));
+                isSuccessful = false;
+            } catch (InterruptedException theError) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        theOut.flush();
+
+        return isSuccessful;
+    }
+
+    /**
+     * Helper method that loads, parses and recalculates a single file, and writes its values to the output
+     * directory if there is one.
+     * @param theFile The sheet file.
+     * @return The values and timings of the file.
+     * @throws IOException When the file can't be read or the values can't be written.
+     */
+    private Result evaluate(final Path theFile) throws IOException {
+        long start = System.nanoTime();
+        String text = Files.readString(theFile, StandardCharsets.UTF_8);
+        long loaded = System.nanoTime();
+        Spreadsheet sheet = SheetLoader.read(new StringReader(text));
+        long parsed = System.nanoTime();
+        sheet.recalculate();
+        long recalculated = System.nanoTime();
+
+        String values = mySelectedCells == null ? sheet.valuesToString() : getSelectedValues(sheet);
+        if (myOutputDirectory != null) {
+            Files.createDirectories(myOutputDirectory);
+            Files.writeString(myOutputDirectory.resolve(theFile.getFileName() + VALUES_EXTENSION),
+                    values, StandardCharsets.UTF_8);
+        }
+
+        return new Result(values, loaded - start, parsed - loaded, recalculated - parsed);
+    }
+
+    /**
+     * Helper method that formats the values of the selected cells.
+     * @param theSheet The evaluated sheet.
+     * @return One line per selected cell, holding its address and value.
+     * @throws IllegalArgumentException When a selected cell is outside the sheet.
+     */
+    private String getSelectedValues(final Spreadsheet theSheet) {
+        StringBuilder result = new StringBuilder();
+        for (CellToken cell : mySelectedCells) {
+            result.append(SheetUtility.getCellAddress(cell))
+                    .append(" ")
+                    .append(theSheet.getCellValue(cell.getRow(), cell.getColumn()))
+                    .append("\n");
+        }
+        return result.toString();
+    }
+
+    /**
+     * Helper method that reads the value of an option.
+     * @param theArgs The command line arguments.
+     * @param theIndex The index of the value.
+     * @return The value.
+     * @throws IllegalArgumentException When the value is missing.
+     */
+    private static String getOption(final String[] theArgs, final int theIndex) {
+        if (theIndex >= theArgs.length) {
+            throw new IllegalArgumentException("Missing value for " + theArgs[theIndex - 1]);
+        }
+        return theArgs[theIndex];
+    }
+
+    /**
+     * Helper method that parses a comma separated list of cell addresses.
+     * @param theList The list, such as "A0,B3".
+     * @return The cells.
+     * @throws IllegalArgumentException When an address is malformed.
+     */
+    private static List<CellToken> parseCells(final String theList) {
+        List<CellToken> cells = new ArrayList<>();
+        for (String address : theList.split(",")) {
+            CellToken cell = new CellToken();
+            if (SheetUtility.getCellToken(address.trim(), 0, cell) != address.trim().length()) {
+                throw new IllegalArgumentException("Bad cell address: " + address);
+            }
+            cells.add(cell);
+        }
+        return cells;
+    }
+
+    /** The values and timings of a single file. */
+    private static final class Result {
+        /** The formatted values. */
+        private final String myValues;
+
+        /** The time spent reading the file. */
+        private final long myLoadNanos;
+
+        /** The time spent parsing the formulas and building the dependency graph. */
+        private final long myParseNanos;
+
+        /** The time spent recalculating the sheet. */
+        private final long myRecalculationNanos;
+
+        /**
+         * Creates the result of a file.
+         * @param theValues The formatted values.
+         * @param theLoadNanos The time spent reading the file.
+         * @param theParseNanos The time spent parsing the formulas and building the dependency graph.
+         * @param theRecalculationNanos The time spent recalculating the sheet.
+         */
+        private Result(final String theValues, final long theLoadNanos, final long theParseNanos,
+                       final long theRecalculationNanos) {
+            myValues = theValues;
+            myLoadNanos = theLoadNanos;
+            myParseNanos = theParseNanos;
+            myRecalculationNanos = theRecalculationNanos;
+        }
+    }
+}
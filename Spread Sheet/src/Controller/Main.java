@@ -1,18 +1,22 @@
 package Controller;
 
 /**
- * Main class that simply launches an instance of a spreadsheet.
+ * Main class that launches an instance of a spreadsheet, or evaluates sheet files headless when given any
+ * arguments (see BatchEvaluator).
  * @author Dillon Crookshank
  * @author Halim Lee
  * @author Thinh Le
- * @version 1.1
+ * @version 1.2
  */
 public class Main {
     /**
-     * Launches an instance of the Spreadsheet GUI.
+     * Launches an instance of the Spreadsheet GUI, or the batch evaluator when there are arguments.
      * @param theArgs The command line arguments.
      */
     public static void main(final String[] theArgs) {
+        if (theArgs.length > 0) {
+            System.exit(BatchEvaluator.run(theArgs));
+        }
         new SheetController();
     }
 }
@@ -1,6 +1,8 @@
 package Controller;
 
 import Model.CellToken;
+import Model.RecalculationMonitor;
+import Model.SheetLoader;
 import Model.SheetUtility;
 import Model.Spreadsheet;
 import View.CellPanel;
@@ -13,8 +15,19 @@ import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintStream;
-import java.util.Scanner;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
@@ -40,6 +53,9 @@ public class SheetController {
     /** The pixel padding added to the minimum window height. */
     private static final int PADDING_Y = 25;
 
+    /** The JMX name that the metrics of the shown sheet are registered under. */
+    private static final String METRICS_NAME = "Model:type=Spreadsheet,name=Metrics";
+
     private final Dimension SCREEN_SIZE = Toolkit.getDefaultToolkit().getScreenSize();
 
     /** The instance of the model. */
@@ -57,22 +73,33 @@ public class SheetController {
     /** The panel that holds the formula editor. */
     private final FormulaPanel myFormulaPanel;
 
-    /** The panel that holds the cells of the spreadsheet. */
+    /** The scrollable panel that holds the cells of the spreadsheet. */
     private CellPanel myCellPanel;
 
-    /** The scroll pane that holds the cell panel. */
-    private JScrollPane myScrollable;
-
     /** The instance of GridBagConstraints used throughout the class. */
     private final GridBagConstraints myGBC;
 
     /** Boolean Field that determines if formulas should be shown in cells or not. */
     private boolean myViewFormulaFlag;
 
+    /** The single background thread that loads files and recalculates the sheet, off the event dispatch thread. */
+    private final ExecutorService myBackgroundExecutor;
+
+    /** The latest recalculation job, or null if the sheet has not been changed since it was last reset. */
+    private RecalculationJob myRecalculationJob;
+
+    /** The result of the latest recalculation job. */
+    private Future<?> myRecalculationFuture;
+
     /** The lone constructor to the controller. */
     public SheetController() {
         myViewFormulaFlag = false;
         myGBC = new GridBagConstraints();
+        myBackgroundExecutor = Executors.newSingleThreadExecutor(theTask -> {
+            Thread thread = new Thread(theTask, "Recalculation");
+            thread.setDaemon(true);
+            return thread;
+        });
 
         //Initialize the model
         mySheet = new Spreadsheet();
@@ -88,10 +115,10 @@ public class SheetController {
         myMainPanel.add(myFormulaPanel, myGBC);
 
         //Initialize the cell panel
-        myCellPanel = new CellPanel();
-        myScrollable = new JScrollPane(myCellPanel);
+        myCellPanel = new CellPanel(mySheet);
+        watchSheet();
         myGBC.gridy = 1;
-        myMainPanel.add(myScrollable, myGBC);
+        myMainPanel.add(myCellPanel, myGBC);
 
         //Initialize the window
         myWindow = new JFrame(DEFAULT_TITLE);
@@ -147,6 +174,8 @@ public class SheetController {
                 case (MenuBar.NEW) -> newSheetPrompt();
                 case (MenuBar.OPEN) -> openSpreadsheet();
                 case (MenuBar.SAVE) -> saveSpreadsheet();
+                case (MenuBar.UNDO) -> undoEdit(true);
+                case (MenuBar.REDO) -> undoEdit(false);
                 case (MenuBar.VIEW_VALUES) -> {
                     //Change formula flag field and update GUI
                     myViewFormulaFlag = false;
@@ -302,15 +331,27 @@ public class SheetController {
      * @param theColumns The # of columns in the new sheet.
      */
     private void createNewSheet(final int theRows, final int theColumns) {
-        myMainPanel.remove(myScrollable);
-        myCellPanel = new CellPanel(theRows, theColumns);
-        myScrollable = new JScrollPane(myCellPanel);
-        mySheet = new Spreadsheet(theRows, theColumns);
+        showSheet(new Spreadsheet(theRows, theColumns));
+    }
+
+    /**
+     * Helper method that replaces the model with the given sheet, re-initializes the CellPanel to its dimensions,
+     * and resets the window.
+     * @param theSheet The new model.
+     */
+    private void showSheet(final Spreadsheet theSheet) {
+        stopRecalculation();
+        myRecalculationJob = null;
+
+        myMainPanel.remove(myCellPanel);
+        myCellPanel = new CellPanel(theSheet);
+        mySheet = theSheet;
+        watchSheet();
 
         //Add the sheetPanel back to the GUI
         myGBC.gridx = 0;
         myGBC.gridy = 1;
-        myMainPanel.add(myScrollable, myGBC);
+        myMainPanel.add(myCellPanel, myGBC);
 
         resetWindow();
 
@@ -328,40 +369,27 @@ public class SheetController {
 
         //Only open a new file if a file was properly selected
         if(returnVal == JFileChooser.APPROVE_OPTION) {
-            Scanner sheetFile = new Scanner("");
-            try {
-                sheetFile = new Scanner(chooser.getSelectedFile().getAbsoluteFile());
-            } catch (FileNotFoundException theExc) {
-                System.err.println("File not Found.");
-            }
-
-            //Dimensions of the sheet are always the first 2 pieces of data
-            int rows = Integer.parseInt(sheetFile.next());
-            int columns = Integer.parseInt(sheetFile.next());
-
-            sheetFile.nextLine();
-
-            //Change the sheet in the window
-            createNewSheet(rows, columns);
-            myMenuBar.setOptionEnabled(MenuBar.CLEAR, true);
-
-            //Read each cell and fill the sheet
-            while (sheetFile.hasNext()) {
-                String dataLine = sheetFile.nextLine();
-
-                CellToken nextCell = new CellToken();
-                int index = 0;
-                index = SheetUtility.getCellToken(dataLine, index, nextCell);
-
-                mySheet.changeCellFormula(nextCell, dataLine.substring(index).trim());
-            }
-            //Tell the model to evaluate the entire spreadsheet and update the GUI
-            mySheet.evaluateSheet();
-            updateCellPanel();
-
-            //Update the window title and close resources.
-            myWindow.setTitle(chooser.getSelectedFile().getName());
-            sheetFile.close();
+            //The file is read on the background thread, and the sheet is evaluated there once it is shown.
+            Path path = chooser.getSelectedFile().toPath();
+            String name = chooser.getSelectedFile().getName();
+            myBackgroundExecutor.execute(() -> {
+                try {
+                    Spreadsheet sheet = SheetLoader.read(path);
+                    SwingUtilities.invokeLater(() -> {
+                        //Change the sheet in the window and update the GUI
+                        showSheet(sheet);
+                        myMenuBar.setOptionEnabled(MenuBar.CLEAR, true);
+                        updateCellPanel();
+                        recalculateInBackground(null, null);
+
+                        //Update the window title.
+                        myWindow.setTitle(name);
+                    });
+                } catch (IOException | RuntimeException theError) {
+                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null,
+                            "Could not open the file. " + theError.getMessage()));
+                }
+            });
         }
     }
 
@@ -395,12 +423,15 @@ public class SheetController {
     private void clearConfirmation() {
         if (JOptionPane.showConfirmDialog(myWindow, "You sure that you want to clear your spreadsheet?",
                 "Exit Confirmation", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
+            stopRecalculation();
+            myRecalculationJob = null;
+            myFormulaPanel.setProgress(0, 0);
             mySheet.clear();
-            updateCellPanel();
 
             myFormulaPanel.setAddress("");
             myFormulaPanel.setFormula("");
             myMenuBar.setOptionEnabled(MenuBar.CLEAR, false);
+            updateUndoOptions();
         }
     }
 
@@ -441,48 +472,142 @@ public class SheetController {
         CellToken tempCell = new CellToken();
         SheetUtility.getCellToken(myFormulaPanel.getAddress(), 0, tempCell);
 
-        if (myFormulaPanel.getFormula().trim().equals("")) {
-            mySheet.clearCell(tempCell);
-            return;
-        }
+        //Stop the running recalculation before touching the sheet, the new one will pick up where it left off.
+        stopRecalculation();
+
         //Keep the old formula just in case an error gets thrown, so that the program can revert the users changes.
         String oldFormula = mySheet.getCellFormula(tempCell);
 
+        //A formula that would create a dependency loop is rejected here, and the cell keeps its old formula.
         try {
-            mySheet.changeCellFormulaAndRecalculate(tempCell, myFormulaPanel.getFormula());
+            mySheet.changeCellFormula(tempCell, myFormulaPanel.getFormula());
         } catch (Exception theError) {
-            JOptionPane.showMessageDialog(null, "An Error Has Occurred.");
-            mySheet.changeCellFormulaAndRecalculate(tempCell, oldFormula);
-            updateCellPanel();
+            JOptionPane.showMessageDialog(null, "An Error Has Occurred. " + theError.getMessage());
+            recalculateInBackground(null, null);
             return;
         }
 
+        //The sheet tells the cell panel which cells changed, so only those cells are repainted.
+        recalculateInBackground(tempCell, oldFormula);
         myMenuBar.setOptionEnabled(MenuBar.CLEAR, true);
-        updateCellPanel();
+        updateUndoOptions();
     }
 
     /**
-     * Helper method that refreshes each cell value/formula text field.
-     * This method should be called whenever a cell's underlying data is changed.
-     **/
-    private void updateCellPanel() {
-        int columns = mySheet.getNumColumns();
-        int rows = mySheet.getNumRows();
+     * Helper method that undoes or redoes the newest edit, then re-evaluates the cells downstream of it.
+     * @param isUndoing True to undo, false to redo.
+     */
+    private void undoEdit(final boolean isUndoing) {
+        stopRecalculation();
 
-        //Update the entire sheet whenever any cell changes
-        for (int y = 0; y < rows; y++) {
-            for (int x = 0; x < columns; x++) {
+        //An edit that would now create a dependency loop through another sheet is left as it is.
+        try {
+            if (isUndoing ? mySheet.undo() : mySheet.redo()) {
+                myMenuBar.setOptionEnabled(MenuBar.CLEAR, true);
+            }
+        } catch (IllegalArgumentException | IllegalStateException theError) {
+            JOptionPane.showMessageDialog(null, "An Error Has Occurred. " + theError.getMessage());
+        }
+        recalculateInBackground(null, null);
+        updateUndoOptions();
+    }
 
-                if (myViewFormulaFlag) {
-                    myCellPanel.setCell(mySheet.getCellFormula(y, x), x, y);
-                } else {
-                    myCellPanel.setCell(mySheet.getCellValue(y, x), x, y);
-                }
+    /** Helper method that enables the Undo and Redo options when the sheet has edits to undo or redo. */
+    private void updateUndoOptions() {
+        myMenuBar.setOptionEnabled(MenuBar.UNDO, mySheet.canUndo());
+        myMenuBar.setOptionEnabled(MenuBar.REDO, mySheet.canRedo());
+    }
+
+    /**
+     * Helper method that starts recalculating the sheet on the background thread.
+     * Must be called after stopRecalculation(), once the sheet has been changed.
+     * @param theCell The cell that was just changed, or null.
+     * @param theOldFormula The formula of the changed cell before the change, or null.
+     */
+    private void recalculateInBackground(final CellToken theCell, final String theOldFormula) {
+        RecalculationJob job = new RecalculationJob(mySheet);
+
+        //A superseded job that was stopped before it finished never checked that its edits evaluate.
+        if (myRecalculationJob != null && !myRecalculationJob.isFinished()) {
+            job.inheritEdits(myRecalculationJob);
+        }
+        if (theCell != null) {
+            job.addEdit(theCell, theOldFormula);
+        }
+
+        myRecalculationJob = job;
+        myRecalculationFuture = myBackgroundExecutor.submit(job);
+    }
+
+    /**
+     * Helper method that cancels the running recalculation, and waits until it stops touching the sheet.
+     * The cells it did not evaluate yet are kept for the next recalculation.
+     */
+    private void stopRecalculation() {
+        if (myRecalculationJob == null) {
+            return;
+        }
 
+        myRecalculationJob.cancel();
+        try {
+            myRecalculationFuture.get();
+        } catch (InterruptedException theError) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException theError) {
+            //The job reports its own errors.
+        }
+    }
+
+    /**
+     * Helper method that reverts the edits of a recalculation job that failed, then recalculates again.
+     * @param theJob The job that failed.
+     */
+    private void revertEdits(final RecalculationJob theJob) {
+        //A newer job inherited the edits if it superseded this one, and will fail on its own.
+        if (theJob != myRecalculationJob) {
+            return;
+        }
+
+        JOptionPane.showMessageDialog(null, "An Error Has Occurred.");
+        stopRecalculation();
+        myRecalculationJob = null;
+        theJob.revert();
+        recalculateInBackground(null, null);
+        updateUndoOptions();
+    }
+
+    /** Helper method that forwards the changes of the current sheet to the cell panel, on the event dispatch thread. */
+    private void watchSheet() {
+        CellPanel panel = myCellPanel;
+        mySheet.addSheetListener(theChanges -> SwingUtilities.invokeLater(() -> panel.updateCells(theChanges)));
+        publishMetrics();
+    }
+
+    /** Helper method that registers the metrics of the shown sheet with JMX, replacing those of the previous sheet. */
+    private void publishMetrics() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(METRICS_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
             }
+            server.registerMBean(mySheet.getMetrics(), name);
+        } catch (JMException theError) {
+            //The metrics are only a diagnostic aid, the sheet works without them.
+            System.err.println("Could not register the sheet metrics: " + theError.getMessage());
         }
     }
 
+    /**
+     * Helper method that refreshes the cell panel, showing either values or formulas.
+     * This method should be called whenever a cell's underlying data is changed.
+     * Only the cells within the visible part of the panel are repainted.
+     **/
+    private void updateCellPanel() {
+        myCellPanel.setShowFormulas(myViewFormulaFlag);
+        myCellPanel.refresh();
+    }
+
     /** A helper method that resets the window to its initial state. */
     private void resetWindow() {
         myWindow.pack();
@@ -490,7 +615,7 @@ public class SheetController {
         myWindow.setResizable(false);
 
         //Set the preferred size of the scroll pane
-        myScrollable.setPreferredSize(new Dimension((int) SCREEN_SIZE.getWidth() - PADDING_X * 2,
+        myCellPanel.setPreferredSize(new Dimension((int) SCREEN_SIZE.getWidth() - PADDING_X * 2,
                 (int) SCREEN_SIZE.getHeight() - myFormulaPanel.getHeight() - PADDING_Y * 2));
 
 
@@ -501,9 +626,113 @@ public class SheetController {
         myFormulaPanel.setAddress("");
 
         myMenuBar.setOptionEnabled(MenuBar.CLEAR, false);
+        updateUndoOptions();
         myMenuBar.setOptionEnabled(MenuBar.VIEW_VALUES, false);
         myMenuBar.setOptionEnabled(MenuBar.VIEW_FORMULAS, true);
 
         myViewFormulaFlag = false;
     }
+
+    /** A recalculation of the sheet that runs on the background thread, and can be superseded by a newer edit. */
+    private class RecalculationJob implements Runnable, RecalculationMonitor {
+        /** The sheet that is recalculated. */
+        private final Spreadsheet myJobSheet;
+
+        /** The cells edited since the last recalculation that finished, in order. */
+        private final List<CellToken> myEditedCells;
+
+        /** The formulas of the edited cells before each edit. */
+        private final List<String> myOldFormulas;
+
+        /** Set by the event dispatch thread to stop the job. */
+        private volatile boolean myCancelledFlag;
+
+        /** Set once the job has evaluated every cell. */
+        private volatile boolean myFinishedFlag;
+
+        /**
+         * The lone constructor for a RecalculationJob.
+         * @param theSheet The sheet to be recalculated.
+         */
+        RecalculationJob(final Spreadsheet theSheet) {
+            myJobSheet = theSheet;
+            myEditedCells = new ArrayList<>();
+            myOldFormulas = new ArrayList<>();
+        }
+
+        @Override
+        public void run() {
+            if (myCancelledFlag) {
+                return;
+            }
+
+            try {
+                if (myJobSheet.recalculate(this)) {
+                    myFinishedFlag = true;
+                    SwingUtilities.invokeLater(() -> {
+                        if (myRecalculationJob == this) {
+                            myFormulaPanel.setProgress(0, 0);
+                        }
+                    });
+                }
+            } catch (RuntimeException theError) {
+                SwingUtilities.invokeLater(() -> revertEdits(this));
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return myCancelledFlag;
+        }
+
+        @Override
+        public void progressed(final int theDone, final int theTotal) {
+            SwingUtilities.invokeLater(() -> {
+                if (myRecalculationJob == this) {
+                    myFormulaPanel.setProgress(theDone, theTotal);
+                }
+            });
+        }
+
+        /** Asks the job to stop after its current batch of cells. */
+        void cancel() {
+            myCancelledFlag = true;
+        }
+
+        /**
+         * @return True if the job evaluated every cell.
+         */
+        boolean isFinished() {
+            return myFinishedFlag;
+        }
+
+        /**
+         * Records an edit, so that it can be reverted if it turns out to be invalid.
+         * @param theCell The edited cell.
+         * @param theOldFormula The formula of the cell before the edit.
+         */
+        void addEdit(final CellToken theCell, final String theOldFormula) {
+            myEditedCells.add(theCell);
+            myOldFormulas.add(theOldFormula);
+        }
+
+        /**
+         * Takes over the edits of a superseded job.
+         * @param theJob The superseded job.
+         */
+        void inheritEdits(final RecalculationJob theJob) {
+            myEditedCells.addAll(theJob.myEditedCells);
+            myOldFormulas.addAll(theJob.myOldFormulas);
+        }
+
+        /**
+         * Reverts every edit of the job, newest first, withdrawing them from the undo history.
+         * Must only be called once the job has stopped.
+         */
+        void revert() {
+            for (int i = myEditedCells.size() - 1; i >= 0; i--) {
+                myJobSheet.revertCellFormula(myEditedCells.get(i), myOldFormulas.get(i));
+            }
+        }
+    }
 }
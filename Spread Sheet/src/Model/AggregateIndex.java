@@ -0,0 +1,269 @@
+package Model;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Answers SUM, AVG, MIN and MAX queries over a range of rows within a single column of a spreadsheet.
+ * The column is split into blocks of CellStore.TILE_SIZE rows, and a segment tree over the blocks holds the sum,
+ * # of filled cells, minimum and maximum of each block. A query reads the tree for the blocks that it covers
+ * completely and the cells themselves at both ends, so it costs O(log(rows) + TILE_SIZE) no matter how long
+ * the range is. A block is exactly one run of the column within a tile of the store, so its values are contiguous.
+ * Changed cells only mark their block, and the blocks are recomputed in one pass by flush().
+ * The index also remembers which aggregate cells watch which rows of the column, so that a cell that is filled
+ * later can be connected to the aggregates that cover it.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+class AggregateIndex {
+    /** The index of the sum within a totals array. */
+    static final int SUM = 0;
+
+    /** The index of the # of filled cells within a totals array. */
+    static final int COUNT = 1;
+
+    /** The index of the minimum within a totals array. */
+    static final int MIN = 2;
+
+    /** The index of the maximum within a totals array. */
+    static final int MAX = 3;
+
+    /** The # of rows in a block. */
+    private static final int BLOCK_SIZE = CellStore.TILE_SIZE;
+
+    /** The store that the cells are read from. */
+    private final CellStore myStore;
+
+    /** The column that is indexed. */
+    private final int myColumn;
+
+    /** The # of rows in the sheet. */
+    private final int myNumRows;
+
+    /** The # of leaves of the tree, a power of 2 that is at least the # of blocks. */
+    private final int myLeafCount;
+
+    /** The sum of each tree node, the leaves start at myLeafCount. */
+    private final double[] mySums;
+
+    /** The # of filled cells below each tree node. */
+    private final int[] myCounts;
+
+    /** The minimum of each tree node. */
+    private final double[] myMins;
+
+    /** The maximum of each tree node. */
+    private final double[] myMaxes;
+
+    /** Whether each block has changed since the last flush. */
+    private final boolean[] myDirtyFlags;
+
+    /** The blocks that have changed since the last flush. */
+    private int[] myDirtyBlocks;
+
+    /** The # of changed blocks. */
+    private int myDirtyCount;
+
+    /** The packed coordinates of the aggregate cells that watch the column. */
+    private long[] myWatchers;
+
+    /** The first and last watched row of each watcher, in pairs. */
+    private int[] myWatchedRows;
+
+    /** The # of watchers. */
+    private int myWatcherCount;
+
+    /**
+     * Creates the index of a column, and fills it with the values that the column currently holds.
+     * @param theStore The store that the cells are read from.
+     * @param theColumn The column to be indexed.
+     * @param theNumRows The # of rows in the sheet.
+     */
+    AggregateIndex(final CellStore theStore, final int theColumn, final int theNumRows) {
+        myStore = theStore;
+        myColumn = theColumn;
+        myNumRows = theNumRows;
+
+        int blockCount = (theNumRows + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        myLeafCount = Integer.highestOneBit(Math.max(1, blockCount - 1)) << 1;
+        mySums = new double[myLeafCount * 2];
+        myCounts = new int[myLeafCount * 2];
+        myMins = new double[myLeafCount * 2];
+        myMaxes = new double[myLeafCount * 2];
+        Arrays.fill(myMins, Double.POSITIVE_INFINITY);
+        Arrays.fill(myMaxes, Double.NEGATIVE_INFINITY);
+
+        myDirtyFlags = new boolean[blockCount];
+        myDirtyBlocks = new int[16];
+        myWatchers = new long[4];
+        myWatchedRows = new int[8];
+
+        //Fill the leaves, then every internal node.
+        for (int block = 0; block < blockCount; block++) {
+            loadLeaf(block);
+        }
+        for (int node = myLeafCount - 1; node > 0; node--) {
+            combine(node);
+        }
+    }
+
+    /**
+     * Records that the cell at the given row was filled, emptied or given a new value.
+     * The change is only visible to queries after the next flush().
+     * @param theRow The row of the cell.
+     */
+    void markChanged(final int theRow) {
+        int block = theRow / BLOCK_SIZE;
+        if (!myDirtyFlags[block]) {
+            myDirtyFlags[block] = true;
+            if (myDirtyCount == myDirtyBlocks.length) {
+                myDirtyBlocks = Arrays.copyOf(myDirtyBlocks, myDirtyCount * 2);
+            }
+            myDirtyBlocks[myDirtyCount++] = block;
+        }
+    }
+
+    /** Recomputes every changed block and the tree nodes above them. */
+    void flush() {
+        for (int i = 0; i < myDirtyCount; i++) {
+            int block = myDirtyBlocks[i];
+            myDirtyFlags[block] = false;
+            loadLeaf(block);
+
+            for (int node = (myLeafCount + block) >>> 1; node > 0; node >>>= 1) {
+                combine(node);
+            }
+        }
+        myDirtyCount = 0;
+    }
+
+    /**
+     * Adds the aggregates of a range of rows to the given totals. Safe to call from several threads at once,
+     * as long as no cell of the column changes meanwhile.
+     * @param theTopRow The first row of the range.
+     * @param theBottomRow The last row of the range.
+     * @param theTotals The totals, indexed by SUM, COUNT, MIN and MAX.
+     */
+    void accumulate(final int theTopRow, final int theBottomRow, final double[] theTotals) {
+        int firstBlock = theTopRow / BLOCK_SIZE;
+        int lastBlock = theBottomRow / BLOCK_SIZE;
+
+        //Read the cells of the blocks that the range only partly covers.
+        if (theTopRow % BLOCK_SIZE != 0 || firstBlock == lastBlock) {
+            myStore.accumulate(myColumn, theTopRow, Math.min(theBottomRow, firstBlock * BLOCK_SIZE + BLOCK_SIZE - 1),
+                    theTotals);
+            firstBlock++;
+        }
+        if (firstBlock <= lastBlock && theBottomRow % BLOCK_SIZE != BLOCK_SIZE - 1 && theBottomRow != myNumRows - 1) {
+            myStore.accumulate(myColumn, lastBlock * BLOCK_SIZE, theBottomRow, theTotals);
+            lastBlock--;
+        }
+
+        //Read the tree for the blocks in between.
+        int low = myLeafCount + firstBlock;
+        int high = myLeafCount + lastBlock + 1;
+        while (low < high) {
+            if ((low & 1) == 1) {
+                accumulateNode(low++, theTotals);
+            }
+            if ((high & 1) == 1) {
+                accumulateNode(--high, theTotals);
+            }
+            low >>>= 1;
+            high >>>= 1;
+        }
+    }
+
+    /**
+     * Remembers that an aggregate cell covers some rows of the column.
+     * @param theCell The packed coordinates of the aggregate cell.
+     * @param theTopRow The first covered row.
+     * @param theBottomRow The last covered row.
+     */
+    void addWatcher(final long theCell, final int theTopRow, final int theBottomRow) {
+        if (myWatcherCount == myWatchers.length) {
+            myWatchers = Arrays.copyOf(myWatchers, myWatcherCount * 2);
+            myWatchedRows = Arrays.copyOf(myWatchedRows, myWatcherCount * 4);
+        }
+        myWatchers[myWatcherCount] = theCell;
+        myWatchedRows[myWatcherCount * 2] = theTopRow;
+        myWatchedRows[myWatcherCount * 2 + 1] = theBottomRow;
+        myWatcherCount++;
+    }
+
+    /**
+     * Forgets one range of an aggregate cell.
+     * @param theCell The packed coordinates of the aggregate cell.
+     * @param theTopRow The first covered row.
+     * @param theBottomRow The last covered row.
+     */
+    void removeWatcher(final long theCell, final int theTopRow, final int theBottomRow) {
+        for (int i = 0; i < myWatcherCount; i++) {
+            if (myWatchers[i] == theCell && myWatchedRows[i * 2] == theTopRow
+                    && myWatchedRows[i * 2 + 1] == theBottomRow) {
+                //Move the last watcher into the gap.
+                myWatcherCount--;
+                myWatchers[i] = myWatchers[myWatcherCount];
+                myWatchedRows[i * 2] = myWatchedRows[myWatcherCount * 2];
+                myWatchedRows[i * 2 + 1] = myWatchedRows[myWatcherCount * 2 + 1];
+                return;
+            }
+        }
+    }
+
+    /**
+     * Walks the aggregate cells that cover the given row.
+     * @param theRow The row.
+     * @param theAction The callback that is given the packed coordinates of each aggregate cell.
+     */
+    void forEachWatcher(final int theRow, final LongConsumer theAction) {
+        for (int i = 0; i < myWatcherCount; i++) {
+            if (myWatchedRows[i * 2] <= theRow && theRow <= myWatchedRows[i * 2 + 1]) {
+                theAction.accept(myWatchers[i]);
+            }
+        }
+    }
+
+    /**
+     * Helper method that recomputes a leaf from the cells of its block.
+     * @param theBlock The block.
+     */
+    private void loadLeaf(final int theBlock) {
+        double[] totals = {0, 0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        myStore.accumulate(myColumn, theBlock * BLOCK_SIZE, Math.min(myNumRows, (theBlock + 1) * BLOCK_SIZE) - 1,
+                totals);
+
+        int leaf = myLeafCount + theBlock;
+        mySums[leaf] = totals[SUM];
+        myCounts[leaf] = (int) totals[COUNT];
+        myMins[leaf] = totals[MIN];
+        myMaxes[leaf] = totals[MAX];
+    }
+
+    /**
+     * Helper method that adds a tree node to the given totals.
+     * @param theNode The tree node.
+     * @param theTotals The totals.
+     */
+    private void accumulateNode(final int theNode, final double[] theTotals) {
+        theTotals[SUM] += mySums[theNode];
+        theTotals[COUNT] += myCounts[theNode];
+        theTotals[MIN] = Math.min(theTotals[MIN], myMins[theNode]);
+        theTotals[MAX] = Math.max(theTotals[MAX], myMaxes[theNode]);
+    }
+
+    /**
+     * Helper method that recomputes an internal tree node from its two children.
+     * @param theNode The tree node.
+     */
+    private void combine(final int theNode) {
+        int left = theNode * 2;
+        int right = left + 1;
+        mySums[theNode] = mySums[left] + mySums[right];
+        myCounts[theNode] = myCounts[left] + myCounts[right];
+        myMins[theNode] = Math.min(myMins[left], myMins[right]);
+        myMaxes[theNode] = Math.max(myMaxes[left], myMaxes[right]);
+    }
+}
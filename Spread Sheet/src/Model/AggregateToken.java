@@ -0,0 +1,91 @@
+package Model;
+
+/**
+ * A token that holds an aggregate function applied to a rectangular range of cells, such as SUM(A1:B10).
+ * The range is stored as its top left and bottom right corners.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+public class AggregateToken extends Token {
+    /** The sum of the filled cells within the range. */
+    public static final int SUM = 0;
+
+    /** The average of the filled cells within the range. */
+    public static final int AVG = 1;
+
+    /** The smallest value of the filled cells within the range. */
+    public static final int MIN = 2;
+
+    /** The largest value of the filled cells within the range. */
+    public static final int MAX = 3;
+
+    /** The names of the functions, indexed by their codes. */
+    private static final String[] FUNCTION_NAMES = {"SUM", "AVG", "MIN", "MAX"};
+
+    /** The separator between the two corners of a range. */
+    public static final char RANGE_SEPARATOR = ':';
+
+    /** The code of the function, one of SUM, AVG, MIN or MAX. */
+    private final int myFunction;
+
+    /** The top left corner of the range. */
+    private final CellToken myStart;
+
+    /** The bottom right corner of the range. */
+    private final CellToken myEnd;
+
+    /**
+     * The lone constructor for an AggregateToken.
+     * The corners may be given in any order, they are stored as the top left and bottom right corners.
+     * @param theFunction The code of the function, one of SUM, AVG, MIN or MAX.
+     * @param theFirst One corner of the range.
+     * @param theSecond The opposite corner of the range.
+     */
+    public AggregateToken(final int theFunction, final CellToken theFirst, final CellToken theSecond) {
+        myFunction = theFunction;
+        myStart = new CellToken(Math.min(theFirst.getRow(), theSecond.getRow()),
+                Math.min(theFirst.getColumn(), theSecond.getColumn()));
+        myEnd = new CellToken(Math.max(theFirst.getRow(), theSecond.getRow()),
+                Math.max(theFirst.getColumn(), theSecond.getColumn()));
+    }
+
+    /**
+     * Finds the code of a function by its name.
+     * @param theName The name of the function, such as "SUM".
+     * @return The code of the function, or -1 if there is no function with that name.
+     */
+    public static int getFunction(final String theName) {
+        for (int i = 0; i < FUNCTION_NAMES.length; i++) {
+            if (FUNCTION_NAMES[i].equals(theName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** An accessor method for the code of the function. */
+    public int getFunction() {
+        return myFunction;
+    }
+
+    /** An accessor method for the top left corner of the range. */
+    public CellToken getStart() {
+        return myStart;
+    }
+
+    /** An accessor method for the bottom right corner of the range. */
+    public CellToken getEnd() {
+        return myEnd;
+    }
+
+    /**
+     * An override of toString() that makes a String in the format: {SUM(A1:B10)}
+     * @return A String representation of an AggregateToken.
+     */
+    @Override
+    public String toString() {
+        return "{" + FUNCTION_NAMES[myFunction] + "(" + myStart + RANGE_SEPARATOR + myEnd + ")}";
+    }
+}
@@ -0,0 +1,427 @@
+package Model;
+
+import java.util.Arrays;
+
+/**
+ * Sparse storage for the cells of a spreadsheet.
+ * The sheet is divided into square tiles that are only allocated when one of their cells is first written,
+ * and released again once they become empty. Memory and iteration cost therefore depend on how many cells
+ * are filled rather than on the dimensions of the sheet.
+ * Each tile keeps its cells as parallel arrays instead of one object per cell: the formula templates, the values
+ * as primitive doubles, and the changed flags. The slots of a tile are laid out column by column, so the values
+ * of a column are read as runs of TILE_SIZE consecutive doubles.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.1
+ */
+class CellStore {
+    /** The # of rows and columns covered by a single tile. */
+    static final int TILE_SIZE = 64;
+
+    /** The # of cells within a single tile. */
+    private static final int TILE_CELLS = TILE_SIZE * TILE_SIZE;
+
+    /** The formula template of each cell of each tile, a null entry means that the tile or the cell is empty. */
+    private FormulaTemplate[][] myTemplates;
+
+    /** The evaluated value of each cell of each tile, 0 for an empty cell. */
+    private double[][] myValues;
+
+    /** Whether each cell of each tile changed since it was last reported to the sheet's listeners. */
+    private boolean[][] myChangedFlags;
+
+    /** The value of each cell of each tile as it was last displayed, only allocated once a tile is displayed. */
+    private Display[][] myDisplays;
+
+    /** The # of filled cells within each tile. */
+    private int[] myTileCounts;
+
+    /** The # of tile rows in the directory. */
+    private final int myTileRows;
+
+    /** The # of tile columns in the directory. */
+    private final int myTileColumns;
+
+    /** The # of filled cells in the whole store. */
+    private int mySize;
+
+    /** A callback used to walk the filled cells of the store. */
+    interface CellVisitor {
+        /**
+         * Called once for every filled cell.
+         * @param theRow The row of the cell.
+         * @param theColumn The column of the cell.
+         * @param theTemplate The formula template of the cell.
+         */
+        void visit(int theRow, int theColumn, FormulaTemplate theTemplate);
+    }
+
+    /**
+     * Creates an empty store that is able to hold a sheet of the given dimensions.
+     * @param theNumRows The # of rows in the sheet.
+     * @param theNumColumns The # of columns in the sheet.
+     */
+    CellStore(final int theNumRows, final int theNumColumns) {
+        myTileRows = (theNumRows + TILE_SIZE - 1) / TILE_SIZE;
+        myTileColumns = (theNumColumns + TILE_SIZE - 1) / TILE_SIZE;
+
+        clear();
+    }
+
+    /**
+     * An accessor method for the formula template of a single cell.
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     * @return The template of the cell at the given coordinates, or null if it is empty.
+     */
+    FormulaTemplate get(final int theRow, final int theColumn) {
+        FormulaTemplate[] tile = myTemplates[tileIndex(theRow, theColumn)];
+        return tile != null ? tile[slotIndex(theRow, theColumn)] : null;
+    }
+
+    /**
+     * A mutator method for the formula template of a single cell.
+     * The cell starts over with a value of 0 and is marked as changed. Putting null empties the cell,
+     * and frees its tile when it was the last filled cell within it.
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     * @param theTemplate The new template, or null.
+     */
+    void put(final int theRow, final int theColumn, final FormulaTemplate theTemplate) {
+        int tileIndex = tileIndex(theRow, theColumn);
+        int slotIndex = slotIndex(theRow, theColumn);
+        FormulaTemplate[] tile = myTemplates[tileIndex];
+
+        if (tile == null) {
+            if (theTemplate == null) {
+                return;
+            }
+            //Allocate the tile on its first write.
+            tile = new FormulaTemplate[TILE_CELLS];
+            myTemplates[tileIndex] = tile;
+            myValues[tileIndex] = new double[TILE_CELLS];
+            myChangedFlags[tileIndex] = new boolean[TILE_CELLS];
+        }
+
+        if (tile[slotIndex] == null && theTemplate != null) {
+            myTileCounts[tileIndex]++;
+            mySize++;
+        } else if (tile[slotIndex] != null && theTemplate == null) {
+            myTileCounts[tileIndex]--;
+            mySize--;
+        }
+        tile[slotIndex] = theTemplate;
+        myValues[tileIndex][slotIndex] = 0;
+        myChangedFlags[tileIndex][slotIndex] = true;
+
+        if (myTileCounts[tileIndex] == 0) {
+            myTemplates[tileIndex] = null;
+            myValues[tileIndex] = null;
+            myChangedFlags[tileIndex] = null;
+            myDisplays[tileIndex] = null;
+        }
+    }
+
+    /**
+     * An accessor method for the value of a single cell.
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     * @return The value of the cell, 0 if it is empty.
+     */
+    double getValue(final int theRow, final int theColumn) {
+        double[] tile = myValues[tileIndex(theRow, theColumn)];
+        return tile != null ? tile[slotIndex(theRow, theColumn)] : 0;
+    }
+
+    /**
+     * A mutator method for the value of a single filled cell. The cell is marked as changed when the value differs.
+     * Cells of the same tile may be set from several threads at once.
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     * @param theValue The new value.
+     */
+    void setValue(final int theRow, final int theColumn, final double theValue) {
+        int tileIndex = tileIndex(theRow, theColumn);
+        int slotIndex = slotIndex(theRow, theColumn);
+        double[] tile = myValues[tileIndex];
+        if (Double.doubleToLongBits(tile[slotIndex]) != Double.doubleToLongBits(theValue)) {
+            tile[slotIndex] = theValue;
+            myChangedFlags[tileIndex][slotIndex] = true;
+        }
+    }
+
+    /**
+     * Copies the values of a run of rows within one column, 0 for the empty cells.
+     * @param theColumn The column.
+     * @param theTopRow The first row of the run.
+     * @param theCount The # of rows in the run.
+     * @param theTarget The array that the values are copied to, starting at index 0.
+     */
+    void getValues(final int theColumn, final int theTopRow, final int theCount, final double[] theTarget) {
+        int copied = 0;
+        while (copied < theCount) {
+            int row = theTopRow + copied;
+            int length = Math.min(theCount - copied, TILE_SIZE - row % TILE_SIZE);
+            double[] tile = myValues[tileIndex(row, theColumn)];
+            if (tile != null) {
+                System.arraycopy(tile, slotIndex(row, theColumn), theTarget, copied, length);
+            } else {
+                Arrays.fill(theTarget, copied, copied + length, 0);
+            }
+            copied += length;
+        }
+    }
+
+    /**
+     * A mutator method for the values of a run of filled cells within one column, see setValue(...).
+     * @param theColumn The column.
+     * @param theTopRow The first row of the run.
+     * @param theCount The # of rows in the run.
+     * @param theSource The new values, starting at index 0.
+     */
+    void setValues(final int theColumn, final int theTopRow, final int theCount, final double[] theSource) {
+        int written = 0;
+        while (written < theCount) {
+            int row = theTopRow + written;
+            int length = Math.min(theCount - written, TILE_SIZE - row % TILE_SIZE);
+            int tileIndex = tileIndex(row, theColumn);
+            double[] tile = myValues[tileIndex];
+            boolean[] changedFlags = myChangedFlags[tileIndex];
+            int slot = slotIndex(row, theColumn);
+            for (int i = written; i < written + length; i++, slot++) {
+                if (Double.doubleToLongBits(tile[slot]) != Double.doubleToLongBits(theSource[i])) {
+                    tile[slot] = theSource[i];
+                    changedFlags[slot] = true;
+                }
+            }
+            written += length;
+        }
+    }
+
+    /**
+     * Reads and resets the changed flag of a single cell.
+     * A new cell starts out changed, and it changes again whenever setValue() is given a different value.
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     * @return True if the cell changed since the last call, or if it is empty.
+     */
+    boolean takeChanged(final int theRow, final int theColumn) {
+        int tileIndex = tileIndex(theRow, theColumn);
+        int slotIndex = slotIndex(theRow, theColumn);
+        if (myTemplates[tileIndex] == null || myTemplates[tileIndex][slotIndex] == null) {
+            return true;
+        }
+
+        boolean isChanged = myChangedFlags[tileIndex][slotIndex];
+        myChangedFlags[tileIndex][slotIndex] = false;
+        return isChanged;
+    }
+
+    /**
+     * An accessor method for the displayed value of a single filled cell, such as 12.50 for a precision of 2.
+     * The text is only rendered again once the value, the precision or the decimal separator changes.
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     * @param thePrecision The # of decimal places.
+     * @return The value, formatted like String.format("%.nf", value).
+     */
+    String getDisplay(final int theRow, final int theColumn, final int thePrecision) {
+        int tileIndex = tileIndex(theRow, theColumn);
+        int slotIndex = slotIndex(theRow, theColumn);
+        Display[] tile = myDisplays[tileIndex];
+        if (tile == null) {
+            tile = new Display[TILE_CELLS];
+            myDisplays[tileIndex] = tile;
+        }
+
+        long bits = Double.doubleToRawLongBits(myValues[tileIndex][slotIndex]);
+        char separator = DecimalFormatter.getSeparator();
+        Display display = tile[slotIndex];
+        if (display == null || display.myBits != bits || display.myPrecision != thePrecision
+                || display.mySeparator != separator) {
+            display = new Display(bits, thePrecision, separator,
+                    DecimalFormatter.format(Double.longBitsToDouble(bits), thePrecision));
+            tile[slotIndex] = display;
+        }
+        return display.myText;
+    }
+
+    /**
+     * Adds the filled cells of a range of rows within one column to the given totals.
+     * @param theColumn The column.
+     * @param theTopRow The first row.
+     * @param theBottomRow The last row.
+     * @param theTotals The totals, indexed by AggregateIndex.SUM, COUNT, MIN and MAX.
+     */
+    void accumulate(final int theColumn, final int theTopRow, final int theBottomRow, final double[] theTotals) {
+        double sum = theTotals[AggregateIndex.SUM];
+        int count = 0;
+        double min = theTotals[AggregateIndex.MIN];
+        double max = theTotals[AggregateIndex.MAX];
+
+        //Each tile holds the rows of the column as one contiguous run.
+        for (int tileTop = theTopRow - theTopRow % TILE_SIZE; tileTop <= theBottomRow; tileTop += TILE_SIZE) {
+            int tileIndex = tileIndex(tileTop, theColumn);
+            FormulaTemplate[] templates = myTemplates[tileIndex];
+            if (templates == null) {
+                continue;
+            }
+
+            double[] values = myValues[tileIndex];
+            int base = slotIndex(tileTop, theColumn);
+            int start = base + Math.max(theTopRow - tileTop, 0);
+            int end = base + Math.min(theBottomRow - tileTop, TILE_SIZE - 1);
+            for (int slot = start; slot <= end; slot++) {
+                if (templates[slot] != null) {
+                    double value = values[slot];
+                    sum += value;
+                    count++;
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+            }
+        }
+
+        theTotals[AggregateIndex.SUM] = sum;
+        theTotals[AggregateIndex.COUNT] += count;
+        theTotals[AggregateIndex.MIN] = min;
+        theTotals[AggregateIndex.MAX] = max;
+    }
+
+    /**
+     * @return The # of filled cells.
+     */
+    int size() {
+        return mySize;
+    }
+
+    /** Empties the store and releases every tile. */
+    void clear() {
+        myTemplates = new FormulaTemplate[myTileRows * myTileColumns][];
+        myValues = new double[myTileRows * myTileColumns][];
+        myChangedFlags = new boolean[myTileRows * myTileColumns][];
+        myDisplays = new Display[myTileRows * myTileColumns][];
+        myTileCounts = new int[myTileRows * myTileColumns];
+        mySize = 0;
+    }
+
+    /**
+     * Walks every filled cell in row-major order, skipping tiles that have never been written.
+     * @param theVisitor The callback that is given each filled cell.
+     */
+    void forEach(final CellVisitor theVisitor) {
+        for (int tileRow = 0; tileRow < myTileRows; tileRow++) {
+            int firstTile = tileRow * myTileColumns;
+
+            //Skip the whole band of tiles when none of them are allocated.
+            boolean isBandEmpty = true;
+            for (int tileColumn = 0; tileColumn < myTileColumns && isBandEmpty; tileColumn++) {
+                isBandEmpty = myTemplates[firstTile + tileColumn] == null;
+            }
+            if (isBandEmpty) {
+                continue;
+            }
+
+            for (int y = 0; y < TILE_SIZE; y++) {
+                for (int tileColumn = 0; tileColumn < myTileColumns; tileColumn++) {
+                    FormulaTemplate[] tile = myTemplates[firstTile + tileColumn];
+                    if (tile == null) {
+                        continue;
+                    }
+
+                    for (int x = 0; x < TILE_SIZE; x++) {
+                        FormulaTemplate template = tile[x * TILE_SIZE + y];
+                        if (template != null) {
+                            theVisitor.visit(tileRow * TILE_SIZE + y, tileColumn * TILE_SIZE + x, template);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks every filled cell within a rectangle, skipping tiles that have never been written.
+     * The cells are visited tile by tile, so the order is not row-major.
+     * @param theTopRow The first row of the rectangle.
+     * @param theLeftColumn The first column of the rectangle.
+     * @param theBottomRow The last row of the rectangle.
+     * @param theRightColumn The last column of the rectangle.
+     * @param theVisitor The callback that is given each filled cell.
+     */
+    void forEachIn(final int theTopRow, final int theLeftColumn, final int theBottomRow, final int theRightColumn,
+                   final CellVisitor theVisitor) {
+        for (int tileRow = theTopRow / TILE_SIZE; tileRow <= theBottomRow / TILE_SIZE; tileRow++) {
+            for (int tileColumn = theLeftColumn / TILE_SIZE; tileColumn <= theRightColumn / TILE_SIZE; tileColumn++) {
+                FormulaTemplate[] tile = myTemplates[tileRow * myTileColumns + tileColumn];
+                if (tile == null) {
+                    continue;
+                }
+
+                //Clip the rectangle to the tile, and walk it column by column like the tile is laid out.
+                int top = Math.max(theTopRow, tileRow * TILE_SIZE);
+                int bottom = Math.min(theBottomRow, tileRow * TILE_SIZE + TILE_SIZE - 1);
+                int left = Math.max(theLeftColumn, tileColumn * TILE_SIZE);
+                int right = Math.min(theRightColumn, tileColumn * TILE_SIZE + TILE_SIZE - 1);
+                for (int column = left; column <= right; column++) {
+                    for (int row = top; row <= bottom; row++) {
+                        FormulaTemplate template = tile[slotIndex(row, column)];
+                        if (template != null) {
+                            theVisitor.visit(row, column, template);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method that finds the tile that holds the given coordinates.
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     * @return The index of the tile within the directory.
+     */
+    private int tileIndex(final int theRow, final int theColumn) {
+        return (theRow / TILE_SIZE) * myTileColumns + (theColumn / TILE_SIZE);
+    }
+
+    /**
+     * Helper method that finds the slot of the given coordinates within its tile, column by column.
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     * @return The index of the cell within its tile.
+     */
+    private int slotIndex(final int theRow, final int theColumn) {
+        return (theColumn % TILE_SIZE) * TILE_SIZE + (theRow % TILE_SIZE);
+    }
+
+    /** A rendered value, together with everything it was rendered from. */
+    private static final class Display {
+        /** The raw bits of the value. */
+        private final long myBits;
+
+        /** The # of decimal places. */
+        private final int myPrecision;
+
+        /** The decimal separator. */
+        private final char mySeparator;
+
+        /** The rendered text. */
+        private final String myText;
+
+        /**
+         * Creates a rendered value.
+         * @param theBits The raw bits of the value.
+         * @param thePrecision The # of decimal places.
+         * @param theSeparator The decimal separator.
+         * @param theText The rendered text.
+         */
+        private Display(final long theBits, final int thePrecision, final char theSeparator, final String theText) {
+            myBits = theBits;
+            myPrecision = thePrecision;
+            mySeparator = theSeparator;
+            myText = theText;
+        }
+    }
+}
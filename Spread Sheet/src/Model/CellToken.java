@@ -1,7 +1,5 @@
 package Model;
 
-import java.util.Objects;
-
 /**
  * A CellToken is a reference to a cell within the spreadsheet.
  * Contains a row value and a column value.
@@ -69,6 +67,6 @@ public class CellToken extends Token {
 
     @Override
     public int hashCode() {
-        return Objects.hash(this.getRow(), this.getColumn());
+        return 31 * myRow + myColumn;
     }
 }
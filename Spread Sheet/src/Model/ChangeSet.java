@@ -0,0 +1,65 @@
+package Model;
+
+/**
+ * The cells of a spreadsheet whose value or formula changed during a single batch of a recalculation.
+ * Each cell appears once, as packed coordinates (see SheetUtility.packCell).
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+public final class ChangeSet {
+    /** The packed coordinates of the changed cells. */
+    private final long[] myCells;
+
+    /** The # of changed cells. */
+    private final int mySize;
+
+    /**
+     * The lone constructor for a ChangeSet.
+     * @param theCells The packed coordinates of the changed cells, the array is not copied.
+     * @param theSize The # of changed cells at the start of the array.
+     */
+    ChangeSet(final long[] theCells, final int theSize) {
+        myCells = theCells;
+        mySize = theSize;
+    }
+
+    /**
+     * @return The # of changed cells.
+     */
+    public int size() {
+        return mySize;
+    }
+
+    /**
+     * An accessor method for the row of a changed cell.
+     * @param theIndex The index of the changed cell, from 0 to size() - 1.
+     * @return The row of the cell.
+     */
+    public int getRow(final int theIndex) {
+        return SheetUtility.getPackedRow(getPackedCell(theIndex));
+    }
+
+    /**
+     * An accessor method for the column of a changed cell.
+     * @param theIndex The index of the changed cell, from 0 to size() - 1.
+     * @return The column of the cell.
+     */
+    public int getColumn(final int theIndex) {
+        return SheetUtility.getPackedColumn(getPackedCell(theIndex));
+    }
+
+    /**
+     * An accessor method for the packed coordinates of a changed cell.
+     * @param theIndex The index of the changed cell, from 0 to size() - 1.
+     * @return The packed coordinates of the cell.
+     * @throws IndexOutOfBoundsException When the index is not within the set.
+     */
+    public long getPackedCell(final int theIndex) {
+        if (theIndex < 0 || theIndex >= mySize) {
+            throw new IndexOutOfBoundsException("Bad change index: " + theIndex);
+        }
+        return myCells[theIndex];
+    }
+}
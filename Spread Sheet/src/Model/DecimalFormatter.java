@@ -0,0 +1,148 @@
+package Model;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Formats doubles with a fixed # of decimal places, giving exactly what String.format("%.nf", value) gives,
+ * without creating a Formatter and parsing a pattern on every call.
+ * Like Formatter, it rounds the shortest decimal form of the value (see Double.toString) half up,
+ * and uses the decimal separator of the default format locale.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+final class DecimalFormatter {
+    /** The decimal separator of the locale that was looked up last. */
+    private static volatile LocaleSeparator myCachedSeparator = new LocaleSeparator(null, '.');
+
+    /** Utility class, no instances. */
+    private DecimalFormatter() {}
+
+    /**
+     * Formats a value.
+     * @param theValue The value.
+     * @param thePrecision The # of decimal places.
+     * @return The formatted value.
+     */
+    static String format(final double theValue, final int thePrecision) {
+        StringBuilder result = new StringBuilder(24);
+        format(result, theValue, thePrecision);
+        return result.toString();
+    }
+
+    /**
+     * Formats a value onto the end of a StringBuilder.
+     * @param theResult The StringBuilder.
+     * @param theValue The value.
+     * @param thePrecision The # of decimal places.
+     */
+    static void format(final StringBuilder theResult, final double theValue, final int thePrecision) {
+        char separator = getSeparator();
+        if (thePrecision < 0 || separator == 0) {
+            //Leave the unusual cases, and their errors, to Formatter.
+            theResult.append(String.format("%." + thePrecision + "f", theValue));
+            return;
+        }
+        if (Double.isNaN(theValue)) {
+            theResult.append("NaN");
+            return;
+        }
+        if (Double.doubleToRawLongBits(theValue) < 0) {
+            theResult.append('-');
+        }
+        if (Double.isInfinite(theValue)) {
+            theResult.append("Infinity");
+            return;
+        }
+
+        //Split the shortest decimal form, such as 1.25 or 1.25E-7, into its digits and the position of the point.
+        String shortest = Double.toString(Math.abs(theValue));
+        int exponentStart = shortest.indexOf('E');
+        int end = exponentStart < 0 ? shortest.length() : exponentStart;
+        int pointIndex = shortest.indexOf('.');
+
+        char[] digits = new char[end];
+        int digitCount = 0;
+        digits[digitCount++] = '0';  //Room for a carry.
+        for (int i = 0; i < end; i++) {
+            if (i != pointIndex) {
+                digits[digitCount++] = shortest.charAt(i);
+            }
+        }
+        int point = 1 + pointIndex;
+        if (exponentStart >= 0) {
+            point += Integer.parseInt(shortest, exponentStart + 1, shortest.length(), 10);
+        }
+
+        //Round half up at the last kept digit.
+        int cut = point + thePrecision;
+        if (cut < digitCount) {
+            boolean isRoundingUp = cut >= 0 && digits[cut] >= '5';
+            digitCount = Math.max(cut, 0);
+            for (int i = digitCount - 1; isRoundingUp; i--) {
+                if (digits[i] == '9') {
+                    digits[i] = '0';
+                } else {
+                    digits[i]++;
+                    isRoundingUp = false;
+                }
+            }
+        }
+
+        //The integer part, without leading zeros.
+        int first = 0;
+        while (first < point - 1 && first < digitCount && digits[first] == '0') {
+            first++;
+        }
+        if (point <= 0) {
+            theResult.append('0');
+        }
+        for (int i = first; i < point; i++) {
+            theResult.append(i < digitCount ? digits[i] : '0');
+        }
+
+        //The fraction, padded with zeros on both sides.
+        if (thePrecision > 0) {
+            theResult.append(separator);
+            for (int i = point; i < point + thePrecision; i++) {
+                theResult.append(i >= 0 && i < digitCount ? digits[i] : '0');
+            }
+        }
+    }
+
+    /**
+     * Finds the decimal separator of the default format locale.
+     * @return The separator, or 0 if the locale does not write digits as 0 to 9.
+     */
+    static char getSeparator() {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        LocaleSeparator cached = myCachedSeparator;
+        if (cached.myLocale != locale) {
+            DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+            cached = new LocaleSeparator(locale, symbols.getZeroDigit() == '0' ? symbols.getDecimalSeparator() : 0);
+            myCachedSeparator = cached;
+        }
+        return cached.mySeparator;
+    }
+
+    /** A locale and its decimal separator, kept together so that threads always see a matching pair. */
+    private static final class LocaleSeparator {
+        /** The locale. */
+        private final Locale myLocale;
+
+        /** Its decimal separator, or 0 if it does not write digits as 0 to 9. */
+        private final char mySeparator;
+
+        /**
+         * Pairs a locale with its decimal separator.
+         * @param theLocale The locale.
+         * @param theSeparator Its decimal separator.
+         */
+        private LocaleSeparator(final Locale theLocale, final char theSeparator) {
+            myLocale = theLocale;
+            mySeparator = theSeparator;
+        }
+    }
+}
@@ -0,0 +1,838 @@
+package Model;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * The dependency graph of a spreadsheet.
+ * Cells are identified by their packed coordinates (see SheetUtility.packCell) and mapped to dense int ids,
+ * so that edges, indegrees and the evaluation order are all kept in primitive int arrays.
+ * An edge goes from a precedent (a referenced cell) to its dependent (the cell whose formula references it).
+ * Every node also holds a position within a topological order of the whole graph, which is repaired locally as
+ * edges are added (Pearce and Kelly's dynamic topological sort). An edge that would close a dependency loop is
+ * therefore rejected as soon as it is set, by looking only at the nodes between its two ends in that order.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+class DependencyGraph {
+    /** The initial # of node slots. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** An edge list that has no edges. */
+    private static final int[] NO_EDGES = new int[0];
+
+    /** Maps packed cell coordinates to node ids. */
+    private final LongIntMap myIds;
+
+    /** The packed cell coordinates of each node. */
+    private long[] myCells;
+
+    /** The dependents (outgoing edges) of each node. */
+    private int[][] myDependents;
+
+    /** The # of dependents of each node. */
+    private int[] myDependentCounts;
+
+    /** The precedents (incoming edges) of each node. */
+    private int[][] myPrecedents;
+
+    /** The # of precedents of each node. */
+    private int[] myPrecedentCounts;
+
+    /** Whether each node has changed since the last recalculation. */
+    private boolean[] myDirtyFlags;
+
+    /** The ids of the nodes that have changed since the last recalculation. */
+    private int[] myDirty;
+
+    /** The # of dirty nodes. */
+    private int myDirtyCount;
+
+    /** The epoch stamp of the last traversal that visited each node. */
+    private int[] myMarks;
+
+    /** The index of each node within the current traversal, valid when its mark equals the current epoch. */
+    private int[] myLocalIndices;
+
+    /** The stamp of the current traversal. */
+    private int myEpoch;
+
+    /** The position of each node within the topological order of the graph. */
+    private int[] myPositions;
+
+    /** The node at each position of the topological order, the inverse of myPositions. */
+    private int[] myNodesAt;
+
+    /** The node that each node was reached from during the last cycle check. */
+    private int[] myParents;
+
+    /** The ids that were released and can be reused. */
+    private int[] myFreeIds;
+
+    /** The # of ids that can be reused. */
+    private int myFreeCount;
+
+    /** The # of ids that have ever been handed out. */
+    private int myNodeCount;
+
+    /** Creates an empty graph. */
+    DependencyGraph() {
+        myIds = new LongIntMap();
+        clear();
+    }
+
+    /** Removes every node and edge from the graph. */
+    void clear() {
+        myIds.clear();
+        myCells = new long[INITIAL_CAPACITY];
+        myDependents = new int[INITIAL_CAPACITY][];
+        myDependentCounts = new int[INITIAL_CAPACITY];
+        myPrecedents = new int[INITIAL_CAPACITY][];
+        myPrecedentCounts = new int[INITIAL_CAPACITY];
+        myDirtyFlags = new boolean[INITIAL_CAPACITY];
+        myDirty = new int[INITIAL_CAPACITY];
+        myDirtyCount = 0;
+        myMarks = new int[INITIAL_CAPACITY];
+        myLocalIndices = new int[INITIAL_CAPACITY];
+        myEpoch = 0;
+        myPositions = new int[INITIAL_CAPACITY];
+        myNodesAt = new int[INITIAL_CAPACITY];
+        myParents = new int[INITIAL_CAPACITY];
+        myFreeIds = new int[INITIAL_CAPACITY];
+        myFreeCount = 0;
+        myNodeCount = 0;
+    }
+
+    /**
+     * Replaces the precedents of a cell and marks the cell as changed.
+     * Duplicate precedents are ignored. When the new precedents would create a dependency loop, the graph is left
+     * exactly as it was.
+     * @param theCell The packed coordinates of the cell whose formula changed.
+     * @param thePrecedents The packed coordinates of the cells that the new formula references.
+     * @param theCount The # of valid entries in thePrecedents.
+     * @throws IllegalStateException When the new precedents create a dependency loop, the message names its cells.
+     */
+    void setPrecedents(final long theCell, final long[] thePrecedents, final int theCount) {
+        int node = getOrCreateNode(theCell);
+        int[] precedents = getUniqueNodes(thePrecedents, theCount);
+
+        //Remove the edges of the old formula.
+        int[] oldPrecedents = myPrecedents[node];
+        int oldCount = myPrecedentCounts[node];
+        myPrecedents[node] = NO_EDGES;
+        myPrecedentCounts[node] = 0;
+        for (int i = 0; i < oldCount; i++) {
+            removeDependent(oldPrecedents[i], node);
+        }
+
+        //Add the edges of the new formula, repairing the order as needed.
+        try {
+            for (int precedent : precedents) {
+                insertEdge(precedent, node);
+            }
+        } catch (IllegalStateException theError) {
+            //Put the old edges back, they can't create a loop since the old graph had none.
+            for (int i = 0; i < myPrecedentCounts[node]; i++) {
+                removeDependent(myPrecedents[node][i], node);
+            }
+            myPrecedents[node] = NO_EDGES;
+            myPrecedentCounts[node] = 0;
+            for (int i = 0; i < oldCount; i++) {
+                insertEdge(oldPrecedents[i], node);
+            }
+
+            for (int precedent : precedents) {
+                releaseIfUnused(precedent);
+            }
+            releaseIfUnused(node);
+            throw theError;
+        }
+
+        for (int i = 0; i < oldCount; i++) {
+            releaseIfUnused(oldPrecedents[i]);
+        }
+        markDirty(node);
+    }
+
+    /**
+     * Replaces the precedents of several cells at once and marks them as changed.
+     * Only the final graph is checked for a dependency loop, so the cells may be given in any order, even when an
+     * intermediate state would have looped. When the final graph has a loop, the graph is left exactly as it was.
+     * @param theCells The packed coordinates of the distinct cells whose formulas changed.
+     * @param theCellCount The # of valid entries in theCells.
+     * @param thePrecedents The packed coordinates of the cells that each new formula references.
+     * @param theCounts The # of valid entries in each array of thePrecedents.
+     * @throws IllegalStateException When the new precedents create a dependency loop, the message names its cells.
+     */
+    void setPrecedents(final long[] theCells, final int theCellCount, final long[][] thePrecedents,
+                       final int[] theCounts) {
+        int[] nodes = new int[theCellCount];
+        int[][] precedents = new int[theCellCount][];
+        for (int i = 0; i < theCellCount; i++) {
+            nodes[i] = getOrCreateNode(theCells[i]);
+            precedents[i] = getUniqueNodes(thePrecedents[i], theCounts[i]);
+        }
+
+        //Remove every old edge first. The graph then only ever grows towards the final one,
+        //so an edge is only rejected when the final graph really loops.
+        int[][] oldPrecedents = new int[theCellCount][];
+        int[] oldCounts = new int[theCellCount];
+        for (int i = 0; i < theCellCount; i++) {
+            int node = nodes[i];
+            oldPrecedents[i] = myPrecedents[node];
+            oldCounts[i] = myPrecedentCounts[node];
+            myPrecedents[node] = NO_EDGES;
+            myPrecedentCounts[node] = 0;
+            for (int j = 0; j < oldCounts[i]; j++) {
+                removeDependent(oldPrecedents[i][j], node);
+            }
+        }
+
+        try {
+            for (int i = 0; i < theCellCount; i++) {
+                for (int precedent : precedents[i]) {
+                    insertEdge(precedent, nodes[i]);
+                }
+            }
+        } catch (IllegalStateException theError) {
+            //Take out the new edges and put the old ones back, they can't create a loop since the old graph had none.
+            for (int node : nodes) {
+                for (int j = 0; j < myPrecedentCounts[node]; j++) {
+                    removeDependent(myPrecedents[node][j], node);
+                }
+                myPrecedents[node] = NO_EDGES;
+                myPrecedentCounts[node] = 0;
+            }
+            for (int i = 0; i < theCellCount; i++) {
+                for (int j = 0; j < oldCounts[i]; j++) {
+                    insertEdge(oldPrecedents[i][j], nodes[i]);
+                }
+            }
+
+            for (int i = 0; i < theCellCount; i++) {
+                for (int precedent : precedents[i]) {
+                    releaseIfUnused(precedent);
+                }
+                releaseIfUnused(nodes[i]);
+            }
+            throw theError;
+        }
+
+        for (int node : nodes) {
+            markDirty(node);
+        }
+        for (int i = 0; i < theCellCount; i++) {
+            for (int j = 0; j < oldCounts[i]; j++) {
+                releaseIfUnused(oldPrecedents[i][j]);
+            }
+        }
+    }
+
+    /**
+     * Adds a single precedent to a cell, unless the cell already references it. The cell is not marked as changed.
+     * @param theCell The packed coordinates of the cell.
+     * @param thePrecedent The packed coordinates of the referenced cell.
+     * @throws IllegalStateException When the new edge creates a dependency loop, the graph is left unchanged.
+     */
+    void addPrecedent(final long theCell, final long thePrecedent) {
+        int node = getOrCreateNode(theCell);
+        int precedent = getOrCreateNode(thePrecedent);
+        for (int i = 0; i < myDependentCounts[precedent]; i++) {
+            if (myDependents[precedent][i] == node) {
+                return;
+            }
+        }
+
+        try {
+            insertEdge(precedent, node);
+        } catch (IllegalStateException theError) {
+            releaseIfUnused(precedent);
+            releaseIfUnused(node);
+            throw theError;
+        }
+    }
+
+    /**
+     * Sets the precedents of a cell that has none yet, and marks the cell as changed, without keeping the
+     * topological order up to date. Used to build a whole graph at once: rebuildOrder() must be called after
+     * the last cell is added, and before any other method.
+     * @param theCell The packed coordinates of the cell.
+     * @param thePrecedents The packed coordinates of the cells that the cell's formula references.
+     * @param theCount The # of valid entries in thePrecedents.
+     */
+    void loadPrecedents(final long theCell, final long[] thePrecedents, final int theCount) {
+        int node = getOrCreateNode(theCell);
+        markDirty(node);
+
+        for (int precedent : getUniqueNodes(thePrecedents, theCount)) {
+            addEdge(precedent, node);
+        }
+    }
+
+    /**
+     * Computes the topological order of the whole graph from scratch with Kahn's algorithm.
+     * Used once after the graph was built with loadPrecedents(...).
+     * @throws IllegalStateException When the graph contains a dependency loop, the message names its cells.
+     */
+    void rebuildOrder() {
+        int[] indegree = new int[myNodeCount];
+        int liveCount = 0;
+        for (int node = 0; node < myNodeCount; node++) {
+            if (isLive(node)) {
+                indegree[node] = myPrecedentCounts[node];
+                liveCount++;
+            }
+        }
+
+        int[] order = new int[myNodeCount];
+        int tail = 0;
+        for (int node = 0; node < myNodeCount; node++) {
+            if (isLive(node) && indegree[node] == 0) {
+                order[tail++] = node;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int current = order[head];
+            for (int i = 0; i < myDependentCounts[current]; i++) {
+                int dependent = myDependents[current][i];
+                if (--indegree[dependent] == 0) {
+                    order[tail++] = dependent;
+                }
+            }
+        }
+
+        if (tail < liveCount) {
+            //Every node left over has a precedent that is left over too, so walking precedents must loop.
+            int node = 0;
+            while (!isLive(node) || indegree[node] == 0) {
+                node++;
+            }
+            throw new IllegalStateException(describeLoop(findLoop(node, indegree)));
+        }
+
+        //The released ids take the positions after the live nodes.
+        for (int node = 0; node < myNodeCount; node++) {
+            if (!isLive(node)) {
+                order[tail++] = node;
+            }
+        }
+        for (int position = 0; position < myNodeCount; position++) {
+            myPositions[order[position]] = position;
+            myNodesAt[position] = order[position];
+        }
+    }
+
+    /**
+     * Marks a cell as changed, so that it is included in the next call to sortDirty().
+     * @param theCell The packed coordinates of the cell.
+     */
+    void markDirty(final long theCell) {
+        markDirty(getOrCreateNode(theCell));
+    }
+
+    /**
+     * Calls an action for every cell that references the given cell directly.
+     * @param theCell The packed coordinates of the cell.
+     * @param theAction The action, given the packed coordinates of each dependent.
+     */
+    void forEachDependent(final long theCell, final LongConsumer theAction) {
+        int node = myIds.get(theCell);
+        if (node == LongIntMap.MISSING) {
+            return;
+        }
+        for (int i = 0; i < myDependentCounts[node]; i++) {
+            theAction.accept(myCells[myDependents[node][i]]);
+        }
+    }
+
+    /**
+     * @return True if any cell has changed since the last call to sortDirty().
+     */
+    boolean hasDirtyCells() {
+        return myDirtyCount > 0;
+    }
+
+    /**
+     * Sorts the changed cells and every cell downstream of them into evaluation order.
+     * The changed cells are only forgotten once the sort succeeds.
+     * @return The affected cells in proper evaluation order.
+     * @throws IllegalStateException When a dependency loop is found.
+     */
+    EvaluationOrder sortDirty() {
+        EvaluationOrder result = sortNodes(myDirty, myDirtyCount);
+
+        int[] dirty = myDirty;
+        int dirtyCount = myDirtyCount;
+        myDirtyCount = 0;
+        for (int i = 0; i < dirtyCount; i++) {
+            myDirtyFlags[dirty[i]] = false;
+            releaseIfUnused(dirty[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Sorts the given cells and every cell downstream of them into evaluation order.
+     * @param theCells The packed coordinates of the cells to start from.
+     * @param theCount The # of valid entries in theCells.
+     * @return The affected cells in proper evaluation order.
+     * @throws IllegalStateException When a dependency loop is found.
+     */
+    EvaluationOrder sort(final long[] theCells, final int theCount) {
+        int[] nodes = new int[theCount];
+        for (int i = 0; i < theCount; i++) {
+            nodes[i] = getOrCreateNode(theCells[i]);
+        }
+
+        try {
+            return sortNodes(nodes, theCount);
+        } finally {
+            for (int i = 0; i < theCount; i++) {
+                releaseIfUnused(nodes[i]);
+            }
+        }
+    }
+
+    /**
+     * Helper method that collects the nodes downstream of the given nodes and sorts them with Kahn's algorithm.
+     * The affected subgraph is copied into CSR form (an offset array plus one flat target array),
+     * so that the sort itself only touches primitive arrays.
+     * The sorted nodes are then grouped by level with a counting sort.
+     * @param theSeeds The ids of the nodes to start from.
+     * @param theSeedCount The # of valid entries in theSeeds.
+     * @return The affected nodes in proper evaluation order.
+     * @throws IllegalStateException When a dependency loop is found.
+     */
+    private EvaluationOrder sortNodes(final int[] theSeeds, final int theSeedCount) {
+        int epoch = nextEpoch();
+
+        //Collect every node downstream of the seeds with a breadth first search.
+        int[] cone = new int[Math.max(theSeedCount, INITIAL_CAPACITY)];
+        int coneSize = 0;
+        for (int i = 0; i < theSeedCount; i++) {
+            int seed = theSeeds[i];
+            if (myMarks[seed] != epoch) {
+                myMarks[seed] = epoch;
+                myLocalIndices[seed] = coneSize;
+                cone = append(cone, coneSize++, seed);
+            }
+        }
+        for (int head = 0; head < coneSize; head++) {
+            int node = cone[head];
+            int[] dependents = myDependents[node];
+            for (int i = 0; i < myDependentCounts[node]; i++) {
+                int dependent = dependents[i];
+                if (myMarks[dependent] != epoch) {
+                    myMarks[dependent] = epoch;
+                    myLocalIndices[dependent] = coneSize;
+                    cone = append(cone, coneSize++, dependent);
+                }
+            }
+        }
+
+        //Build the CSR edge list and the indegrees of the affected subgraph.
+        //The cone is closed under dependents, so every outgoing edge stays within it.
+        int[] offsets = new int[coneSize + 1];
+        for (int i = 0; i < coneSize; i++) {
+            offsets[i + 1] = offsets[i] + myDependentCounts[cone[i]];
+        }
+        int[] targets = new int[offsets[coneSize]];
+        int[] indegree = new int[coneSize];
+        for (int i = 0; i < coneSize; i++) {
+            int node = cone[i];
+            int[] dependents = myDependents[node];
+            for (int j = 0; j < myDependentCounts[node]; j++) {
+                int target = myLocalIndices[dependents[j]];
+                targets[offsets[i] + j] = target;
+                indegree[target]++;
+            }
+        }
+
+        //Perform the topological sort, reusing the order array as the queue.
+        //A node's level is one more than the highest level of its precedents.
+        int[] order = new int[coneSize];
+        int[] levels = new int[coneSize];
+        int levelCount = coneSize > 0 ? 1 : 0;
+        int tail = 0;
+        for (int i = 0; i < coneSize; i++) {
+            if (indegree[i] == 0) {
+                order[tail++] = i;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int current = order[head];
+            for (int j = offsets[current]; j < offsets[current + 1]; j++) {
+                int target = targets[j];
+                levels[target] = Math.max(levels[target], levels[current] + 1);
+                if (--indegree[target] == 0) {
+                    order[tail++] = target;
+                    levelCount = Math.max(levelCount, levels[target] + 1);
+                }
+            }
+        }
+
+        // Check for cycle
+        if (tail < coneSize) {
+            throw new IllegalStateException("There is a cycle");
+        }
+
+        //Group the sorted nodes by level, keeping their relative order within each level.
+        int[] levelStarts = new int[levelCount + 1];
+        for (int i = 0; i < coneSize; i++) {
+            levelStarts[levels[i] + 1]++;
+        }
+        for (int i = 0; i < levelCount; i++) {
+            levelStarts[i + 1] += levelStarts[i];
+        }
+        int[] next = Arrays.copyOf(levelStarts, levelCount);
+        long[] result = new long[coneSize];
+        for (int i = 0; i < coneSize; i++) {
+            int local = order[i];
+            result[next[levels[local]]++] = myCells[cone[local]];
+        }
+        return new EvaluationOrder(result, levelStarts);
+    }
+
+    /**
+     * Helper method that adds an edge and repairs the topological order around it when the edge points backwards.
+     * Only the nodes positioned between the two ends of the edge are ever visited.
+     * @param thePrecedent The id of the referenced node.
+     * @param theDependent The id of the node whose formula references it.
+     * @throws IllegalStateException When the edge closes a dependency loop. The edge is not added in that case.
+     */
+    private void insertEdge(final int thePrecedent, final int theDependent) {
+        int lowerBound = myPositions[theDependent];
+        int upperBound = myPositions[thePrecedent];
+
+        if (thePrecedent == theDependent) {
+            throw new IllegalStateException(describeLoop(new int[] {theDependent, theDependent}));
+        }
+        if (upperBound < lowerBound) {
+            addEdge(thePrecedent, theDependent);
+            return;
+        }
+
+        int epoch = nextEpoch();
+
+        //Collect the nodes downstream of the dependent that sit before the precedent, the precedent means a loop.
+        int[] forward = new int[INITIAL_CAPACITY];
+        int forwardCount = 0;
+        myMarks[theDependent] = epoch;
+        forward = append(forward, forwardCount++, theDependent);
+        for (int head = 0; head < forwardCount; head++) {
+            int node = forward[head];
+            for (int i = 0; i < myDependentCounts[node]; i++) {
+                int dependent = myDependents[node][i];
+                if (dependent == thePrecedent) {
+                    myParents[dependent] = node;
+                    throw new IllegalStateException(describeLoop(traceLoop(thePrecedent, theDependent)));
+                }
+                if (myMarks[dependent] != epoch && myPositions[dependent] < upperBound) {
+                    myMarks[dependent] = epoch;
+                    myParents[dependent] = node;
+                    forward = append(forward, forwardCount++, dependent);
+                }
+            }
+        }
+
+        //Collect the nodes upstream of the precedent that sit after the dependent.
+        int[] backward = new int[INITIAL_CAPACITY];
+        int backwardCount = 0;
+        myMarks[thePrecedent] = epoch;
+        backward = append(backward, backwardCount++, thePrecedent);
+        for (int head = 0; head < backwardCount; head++) {
+            int node = backward[head];
+            for (int i = 0; i < myPrecedentCounts[node]; i++) {
+                int precedent = myPrecedents[node][i];
+                if (myMarks[precedent] != epoch && myPositions[precedent] > lowerBound) {
+                    myMarks[precedent] = epoch;
+                    backward = append(backward, backwardCount++, precedent);
+                }
+            }
+        }
+
+        //Hand the positions of both groups to the upstream group first, keeping the order within each group.
+        long[] upstream = sortByPosition(backward, backwardCount);
+        long[] downstream = sortByPosition(forward, forwardCount);
+        int[] positions = new int[backwardCount + forwardCount];
+        for (int i = 0; i < backwardCount; i++) {
+            positions[i] = (int) (upstream[i] >>> 32);
+        }
+        for (int i = 0; i < forwardCount; i++) {
+            positions[backwardCount + i] = (int) (downstream[i] >>> 32);
+        }
+        Arrays.sort(positions);
+
+        for (int i = 0; i < backwardCount; i++) {
+            place((int) upstream[i], positions[i]);
+        }
+        for (int i = 0; i < forwardCount; i++) {
+            place((int) downstream[i], positions[backwardCount + i]);
+        }
+
+        addEdge(thePrecedent, theDependent);
+    }
+
+    /**
+     * Helper method that adds an edge without looking at the topological order.
+     * @param thePrecedent The id of the referenced node.
+     * @param theDependent The id of the node whose formula references it.
+     */
+    private void addEdge(final int thePrecedent, final int theDependent) {
+        myPrecedents[theDependent] = append(myPrecedents[theDependent], myPrecedentCounts[theDependent]++,
+                thePrecedent);
+        myDependents[thePrecedent] = append(myDependents[thePrecedent], myDependentCounts[thePrecedent]++,
+                theDependent);
+    }
+
+    /**
+     * Helper method that finds the ids of the given cells, creating missing nodes and dropping duplicates.
+     * @param theCells The packed coordinates of the cells.
+     * @param theCount The # of valid entries in theCells.
+     * @return The distinct ids, in the order that they first appear.
+     */
+    private int[] getUniqueNodes(final long[] theCells, final int theCount) {
+        int[] nodes = new int[theCount];
+        int count = 0;
+
+        int epoch = nextEpoch();
+        for (int i = 0; i < theCount; i++) {
+            int node = getOrCreateNode(theCells[i]);
+            if (myMarks[node] != epoch) {
+                myMarks[node] = epoch;
+                nodes[count++] = node;
+            }
+        }
+
+        return count == theCount ? nodes : Arrays.copyOf(nodes, count);
+    }
+
+    /**
+     * Helper method that sorts nodes by their position in the topological order.
+     * @param theNodes The ids of the nodes.
+     * @param theCount The # of valid entries in theNodes.
+     * @return Each node packed with its position in the upper 32 bits, in ascending order.
+     */
+    private long[] sortByPosition(final int[] theNodes, final int theCount) {
+        long[] result = new long[theCount];
+        for (int i = 0; i < theCount; i++) {
+            result[i] = ((long) myPositions[theNodes[i]] << 32) | theNodes[i];
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Helper method that moves a node to a position in the topological order.
+     * @param theNode The id of the node.
+     * @param thePosition The new position of the node.
+     */
+    private void place(final int theNode, final int thePosition) {
+        myPositions[theNode] = thePosition;
+        myNodesAt[thePosition] = theNode;
+    }
+
+    /**
+     * Helper method that rebuilds the loop found by insertEdge(...) from the parents recorded during its search.
+     * @param thePrecedent The id of the referenced node of the rejected edge.
+     * @param theDependent The id of the dependent node of the rejected edge.
+     * @return The nodes of the loop, each referencing the next, starting and ending with the dependent.
+     */
+    private int[] traceLoop(final int thePrecedent, final int theDependent) {
+        //Walking the parents from the precedent back to the dependent visits each node after the one it references.
+        int length = 1;
+        for (int node = thePrecedent; node != theDependent; node = myParents[node]) {
+            length++;
+        }
+
+        int[] result = new int[length + 1];
+        result[0] = theDependent;
+        int index = 1;
+        for (int node = thePrecedent; node != theDependent; node = myParents[node]) {
+            result[index++] = node;
+        }
+        result[length] = theDependent;
+        return result;
+    }
+
+    /**
+     * Helper method that finds a loop among the nodes that Kahn's algorithm could not sort.
+     * @param theStart A node that could not be sorted.
+     * @param theIndegree The # of unsorted precedents of each node.
+     * @return The nodes of the loop, each referencing the next, starting and ending with the same node.
+     */
+    private int[] findLoop(final int theStart, final int[] theIndegree) {
+        int epoch = nextEpoch();
+        int[] path = new int[INITIAL_CAPACITY];
+        int pathLength = 0;
+
+        //Keep following an unsorted precedent until a node repeats.
+        int node = theStart;
+        while (myMarks[node] != epoch) {
+            myMarks[node] = epoch;
+            myLocalIndices[node] = pathLength;
+            path = append(path, pathLength++, node);
+
+            int next = node;
+            for (int i = 0; i < myPrecedentCounts[node] && next == node; i++) {
+                if (theIndegree[myPrecedents[node][i]] > 0) {
+                    next = myPrecedents[node][i];
+                }
+            }
+            node = next;
+        }
+
+        int[] result = Arrays.copyOfRange(path, myLocalIndices[node], pathLength + 1);
+        result[result.length - 1] = node;
+        return result;
+    }
+
+    /**
+     * Helper method that names the cells of a dependency loop.
+     * @param theLoop The nodes of the loop, each referencing the next, starting and ending with the same node.
+     * @return The error message, such as "There is a cycle: A1 -> B1 -> A1".
+     */
+    private String describeLoop(final int[] theLoop) {
+        StringBuilder result = new StringBuilder("There is a cycle: ");
+        for (int i = 0; i < theLoop.length; i++) {
+            long cell = myCells[theLoop[i]];
+            if (i > 0) {
+                result.append(" -> ");
+            }
+            result.append(SheetUtility.getCellAddress(
+                    new CellToken(SheetUtility.getPackedRow(cell), SheetUtility.getPackedColumn(cell))));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Helper method that checks if an id currently belongs to a node.
+     * @param theNode The id.
+     * @return True if the id has not been released.
+     */
+    private boolean isLive(final int theNode) {
+        return myDependents[theNode] != null;
+    }
+
+    /**
+     * Helper method that marks a node as changed.
+     * @param theNode The id of the node.
+     */
+    private void markDirty(final int theNode) {
+        if (!myDirtyFlags[theNode]) {
+            myDirtyFlags[theNode] = true;
+            myDirty = append(myDirty, myDirtyCount++, theNode);
+        }
+    }
+
+    /**
+     * Helper method that removes a single edge from the dependent list of a node.
+     * @param theNode The id of the precedent.
+     * @param theDependent The id of the dependent that should be removed.
+     */
+    private void removeDependent(final int theNode, final int theDependent) {
+        int[] dependents = myDependents[theNode];
+        int last = --myDependentCounts[theNode];
+        for (int i = 0; i <= last; i++) {
+            if (dependents[i] == theDependent) {
+                dependents[i] = dependents[last];
+                break;
+            }
+        }
+    }
+
+    /**
+     * Helper method that finds the id of a cell, creating a new node when the cell is not in the graph yet.
+     * @param theCell The packed coordinates of the cell.
+     * @return The id of the cell's node.
+     */
+    private int getOrCreateNode(final long theCell) {
+        int node = myIds.get(theCell);
+        if (node != LongIntMap.MISSING) {
+            return node;
+        }
+
+        if (myFreeCount > 0) {
+            node = myFreeIds[--myFreeCount];
+        } else {
+            node = myNodeCount++;
+            if (node == myCells.length) {
+                grow(myCells.length * 2);
+            }
+
+            //A node without edges fits anywhere in the order, so a new id takes the next free position.
+            place(node, node);
+        }
+
+        myIds.put(theCell, node);
+        myCells[node] = theCell;
+        myDependents[node] = NO_EDGES;
+        myDependentCounts[node] = 0;
+        myPrecedents[node] = NO_EDGES;
+        myPrecedentCounts[node] = 0;
+        return node;
+    }
+
+    /**
+     * Helper method that removes a node from the graph once it has no edges and is not waiting to be recalculated.
+     * @param theNode The id of the node.
+     */
+    private void releaseIfUnused(final int theNode) {
+        if (myDependentCounts[theNode] == 0 && myPrecedentCounts[theNode] == 0 && !myDirtyFlags[theNode]
+                && myIds.get(myCells[theNode]) == theNode) {
+            myIds.remove(myCells[theNode]);
+            myDependents[theNode] = null;
+            myPrecedents[theNode] = null;
+            myFreeIds = append(myFreeIds, myFreeCount++, theNode);
+        }
+    }
+
+    /**
+     * Helper method that starts a new traversal, resetting the marks when the stamp would overflow.
+     * @return The stamp of the new traversal.
+     */
+    private int nextEpoch() {
+        if (myEpoch == Integer.MAX_VALUE) {
+            Arrays.fill(myMarks, 0);
+            myEpoch = 0;
+        }
+        return ++myEpoch;
+    }
+
+    /**
+     * Helper method that grows every per-node array to the given capacity.
+     * @param theCapacity The new # of node slots.
+     */
+    private void grow(final int theCapacity) {
+        myCells = Arrays.copyOf(myCells, theCapacity);
+        myDependents = Arrays.copyOf(myDependents, theCapacity);
+        myDependentCounts = Arrays.copyOf(myDependentCounts, theCapacity);
+        myPrecedents = Arrays.copyOf(myPrecedents, theCapacity);
+        myPrecedentCounts = Arrays.copyOf(myPrecedentCounts, theCapacity);
+        myDirtyFlags = Arrays.copyOf(myDirtyFlags, theCapacity);
+        myMarks = Arrays.copyOf(myMarks, theCapacity);
+        myLocalIndices = Arrays.copyOf(myLocalIndices, theCapacity);
+        myPositions = Arrays.copyOf(myPositions, theCapacity);
+        myNodesAt = Arrays.copyOf(myNodesAt, theCapacity);
+        myParents = Arrays.copyOf(myParents, theCapacity);
+    }
+
+    /**
+     * Helper method that writes a value at the given index, growing the array when it is full.
+     * @param theArray The array.
+     * @param theIndex The index to write to.
+     * @param theValue The value to be written.
+     * @return The given array, or a larger copy of it.
+     */
+    private static int[] append(final int[] theArray, final int theIndex, final int theValue) {
+        int[] result = theArray;
+        if (theIndex == result.length) {
+            result = Arrays.copyOf(result, Math.max(INITIAL_CAPACITY / 4, result.length * 2));
+        }
+        result[theIndex] = theValue;
+        return result;
+    }
+}
@@ -0,0 +1,313 @@
+package Model;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The undo and redo history of a spreadsheet's formula edits.
+ * Each edit is kept as a delta: the packed coordinates of the cell and references to its old and new formula
+ * Strings, in parallel arrays used as a ring buffer, so the grid itself is never copied.
+ * Edits that were made together, such as the edits of a transaction, form a group that is undone as a whole.
+ * The history holds at most a fixed # of edits, the oldest groups are forgotten first. Consecutive single edits of
+ * the same cell are coalesced into one.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+final class EditJournal {
+    /** The initial # of edit slots. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The most edits that the history may hold. */
+    private int myLimit;
+
+    /** The packed coordinates of the cell of each edit. */
+    private long[] myCells;
+
+    /** The formula of each edit's cell before the edit, empty for an empty cell. */
+    private String[] myOldFormulas;
+
+    /** The formula of each edit's cell after the edit, empty for an empty cell. */
+    private String[] myNewFormulas;
+
+    /** Whether each edit starts a new group. */
+    private boolean[] myGroupStarts;
+
+    /** The slot of the oldest edit. */
+    private int myHead;
+
+    /** The # of edits held, both undoable and redoable. */
+    private int mySize;
+
+    /** The # of oldest edits that can be undone, the rest can be redone. */
+    private int myUndoCount;
+
+    /** Whether the newest edit may still be coalesced with the next one. */
+    private boolean myCoalescingFlag;
+
+    /**
+     * Creates an empty history.
+     * @param theLimit The most edits that the history may hold.
+     */
+    EditJournal(final int theLimit) {
+        myLimit = theLimit;
+        myCells = new long[INITIAL_CAPACITY];
+        myOldFormulas = new String[INITIAL_CAPACITY];
+        myNewFormulas = new String[INITIAL_CAPACITY];
+        myGroupStarts = new boolean[INITIAL_CAPACITY];
+    }
+
+    /**
+     * @return The most edits that the history may hold.
+     */
+    int getLimit() {
+        return myLimit;
+    }
+
+    /**
+     * Changes the most edits that the history may hold, forgetting the oldest groups that no longer fit.
+     * @param theLimit The new limit, 0 turns the history off.
+     */
+    void setLimit(final int theLimit) {
+        myLimit = theLimit;
+        makeRoom(0);
+    }
+
+    /** Forgets every edit. */
+    void clear() {
+        Arrays.fill(myOldFormulas, null);
+        Arrays.fill(myNewFormulas, null);
+        myHead = 0;
+        mySize = 0;
+        myUndoCount = 0;
+        myCoalescingFlag = false;
+    }
+
+    /**
+     * @return True if there is an edit to undo.
+     */
+    boolean canUndo() {
+        return myUndoCount > 0;
+    }
+
+    /**
+     * @return True if there is an undone edit to redo.
+     */
+    boolean canRedo() {
+        return myUndoCount < mySize;
+    }
+
+    /**
+     * Records a single edit of a cell, forgetting the edits that could be redone. When the previous record was an
+     * edit of the same cell, the two are coalesced, and they vanish entirely if the cell is back to where it started.
+     * @param theCell The packed coordinates of the cell.
+     * @param theOldFormula The formula of the cell before the edit.
+     * @param theNewFormula The formula of the cell after the edit.
+     */
+    void record(final long theCell, final String theOldFormula, final String theNewFormula) {
+        if (myCoalescingFlag && myUndoCount == mySize && myCells[slot(mySize - 1)] == theCell) {
+            int last = slot(mySize - 1);
+            if (myOldFormulas[last].equals(theNewFormula)) {
+                forgetNewest();
+            } else {
+                myNewFormulas[last] = theNewFormula;
+            }
+            return;
+        }
+
+        if (theOldFormula.equals(theNewFormula)) {
+            return;
+        }
+        recordGroup(new long[] {theCell}, new String[] {theOldFormula}, new String[] {theNewFormula}, 1);
+        myCoalescingFlag = mySize > 0;
+    }
+
+    /**
+     * Withdraws the newest edit of a cell, once the cell was put back to an earlier formula because the edit turned
+     * out to be invalid. An edit coalesced from several is trimmed back to the given formula instead, and vanishes once
+     * the cell is back to where it started. Nothing changes unless the newest edit is a single edit of the cell that
+     * has not been undone.
+     * @param theCell The packed coordinates of the cell.
+     * @param theFormula The formula that the cell was put back to.
+     */
+    void withdraw(final long theCell, final String theFormula) {
+        if (mySize == 0 || myUndoCount < mySize) {
+            return;
+        }
+
+        int last = slot(mySize - 1);
+        if (myCells[last] != theCell || !myGroupStarts[last]) {
+            return;
+        }
+        if (myOldFormulas[last].equals(theFormula)) {
+            forgetNewest();
+        } else {
+            myNewFormulas[last] = theFormula;
+        }
+    }
+
+    /**
+     * Records a group of edits that are undone together, forgetting the edits that could be redone.
+     * A group that is larger than the limit can never be undone as a whole, so it clears the history instead.
+     * @param theCells The packed coordinates of the distinct cells.
+     * @param theOldFormulas The formula of each cell before the edits.
+     * @param theNewFormulas The formula of each cell after the edits.
+     * @param theCount The # of valid entries in the arrays.
+     */
+    void recordGroup(final long[] theCells, final String[] theOldFormulas, final String[] theNewFormulas,
+                     final int theCount) {
+        //Drop the redoable edits.
+        for (int i = myUndoCount; i < mySize; i++) {
+            myOldFormulas[slot(i)] = null;
+            myNewFormulas[slot(i)] = null;
+        }
+        mySize = myUndoCount;
+        myCoalescingFlag = false;
+
+        if (theCount == 0) {
+            return;
+        }
+        if (theCount > myLimit) {
+            clear();
+            return;
+        }
+
+        makeRoom(theCount);
+        if (mySize + theCount > myCells.length) {
+            grow(Math.min(Math.max(myCells.length * 2, mySize + theCount), Math.max(myLimit, INITIAL_CAPACITY)));
+        }
+        for (int i = 0; i < theCount; i++) {
+            int slot = slot(mySize++);
+            myCells[slot] = theCells[i];
+            myOldFormulas[slot] = theOldFormulas[i];
+            myNewFormulas[slot] = theNewFormulas[i];
+            myGroupStarts[slot] = i == 0;
+        }
+        myUndoCount = mySize;
+    }
+
+    /**
+     * Steps back over the newest undoable group.
+     * @return The formulas that the group's cells had before the group, by packed cell, empty if there was nothing
+     * to undo.
+     */
+    Map<Long, String> undo() {
+        if (myUndoCount == 0) {
+            return Map.of();
+        }
+
+        //The oldest edit held always starts a group.
+        int end = myUndoCount;
+        int start = end - 1;
+        while (!myGroupStarts[slot(start)]) {
+            start--;
+        }
+
+        myUndoCount = start;
+        myCoalescingFlag = false;
+        return getFormulas(start, end, myOldFormulas);
+    }
+
+    /**
+     * Steps forward over the oldest redoable group.
+     * @return The formulas that the group's cells had after the group, by packed cell, empty if there was nothing
+     * to redo.
+     */
+    Map<Long, String> redo() {
+        if (myUndoCount == mySize) {
+            return Map.of();
+        }
+
+        int start = myUndoCount;
+        int end = start + 1;
+        while (end < mySize && !myGroupStarts[slot(end)]) {
+            end++;
+        }
+
+        myUndoCount = end;
+        myCoalescingFlag = false;
+        return getFormulas(start, end, myNewFormulas);
+    }
+
+    /**
+     * Helper method that copies the formulas of a run of edits out of the ring.
+     * @param theStart The index of the first edit, counted from the oldest.
+     * @param theEnd The index after the last edit.
+     * @param theSource The old or the new formulas.
+     * @return The formulas by packed cell.
+     */
+    private Map<Long, String> getFormulas(final int theStart, final int theEnd, final String[] theSource) {
+        Map<Long, String> result = new LinkedHashMap<>();
+        for (int i = theStart; i < theEnd; i++) {
+            result.put(myCells[slot(i)], theSource[slot(i)]);
+        }
+        return result;
+    }
+
+    /**
+     * Helper method that forgets the oldest groups until the given # of edits fits within the limit.
+     * Redoable edits are never forgotten on their own, since the edits after them could no longer be redone.
+     * @param theCount The # of edits about to be added.
+     */
+    private void makeRoom(final int theCount) {
+        while (mySize > 0 && mySize + theCount > myLimit) {
+            if (myUndoCount == 0) {
+                clear();
+                return;
+            }
+            do {
+                myOldFormulas[myHead] = null;
+                myNewFormulas[myHead] = null;
+                myHead = (myHead + 1) % myCells.length;
+                mySize--;
+                myUndoCount--;
+            } while (mySize > 0 && !myGroupStarts[myHead]);
+        }
+        if (mySize == 0) {
+            myCoalescingFlag = false;
+        }
+    }
+
+    /** Helper method that forgets the newest edit, which must be a single edit that can be undone. */
+    private void forgetNewest() {
+        int last = slot(mySize - 1);
+        myOldFormulas[last] = null;
+        myNewFormulas[last] = null;
+        mySize--;
+        myUndoCount = mySize;
+        myCoalescingFlag = false;
+    }
+
+    /**
+     * Helper method that grows the ring, moving the oldest edit to slot 0.
+     * @param theCapacity The new # of edit slots.
+     */
+    private void grow(final int theCapacity) {
+        long[] cells = new long[theCapacity];
+        String[] oldFormulas = new String[theCapacity];
+        String[] newFormulas = new String[theCapacity];
+        boolean[] groupStarts = new boolean[theCapacity];
+        for (int i = 0; i < mySize; i++) {
+            cells[i] = myCells[slot(i)];
+            oldFormulas[i] = myOldFormulas[slot(i)];
+            newFormulas[i] = myNewFormulas[slot(i)];
+            groupStarts[i] = myGroupStarts[slot(i)];
+        }
+        myCells = cells;
+        myOldFormulas = oldFormulas;
+        myNewFormulas = newFormulas;
+        myGroupStarts = groupStarts;
+        myHead = 0;
+    }
+
+    /**
+     * Helper method that finds the slot of an edit.
+     * @param theIndex The index of the edit, counted from the oldest.
+     * @return The slot of the edit within the ring.
+     */
+    private int slot(final int theIndex) {
+        return (myHead + theIndex) % myCells.length;
+    }
+}
@@ -0,0 +1,58 @@
+package Model;
+
+/**
+ * The result of a topological sort: cells in proper evaluation order, grouped into levels.
+ * A cell's level is one more than the highest level of the cells it references, so the cells within a
+ * single level never depend on each other and can be evaluated in any order, or concurrently.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+class EvaluationOrder {
+    /** The packed coordinates (see SheetUtility.packCell) of the cells, level by level. */
+    private final long[] myCells;
+
+    /** The index of the first cell of each level, followed by the total # of cells. */
+    private final int[] myLevelStarts;
+
+    /**
+     * The lone constructor for an EvaluationOrder.
+     * @param theCells The packed coordinates of the cells, level by level.
+     * @param theLevelStarts The index of the first cell of each level, followed by the total # of cells.
+     */
+    EvaluationOrder(final long[] theCells, final int[] theLevelStarts) {
+        myCells = theCells;
+        myLevelStarts = theLevelStarts;
+    }
+
+    /**
+     * @return The packed coordinates of the cells in proper evaluation order.
+     */
+    long[] getCells() {
+        return myCells;
+    }
+
+    /**
+     * @return The # of levels.
+     */
+    int getLevelCount() {
+        return myLevelStarts.length - 1;
+    }
+
+    /**
+     * @param theLevel The level.
+     * @return The index of the first cell of the given level.
+     */
+    int getLevelStart(final int theLevel) {
+        return myLevelStarts[theLevel];
+    }
+
+    /**
+     * @param theLevel The level.
+     * @return The index just after the last cell of the given level.
+     */
+    int getLevelEnd(final int theLevel) {
+        return myLevelStarts[theLevel + 1];
+    }
+}
@@ -0,0 +1,240 @@
+package Model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds the optimized DAG of a formula while FormulaParser reads it, before it is assembled into a FormulaProgram.
+ * Subexpressions made only of literals are folded into a single constant, and the identities x*1, 1*x, x/1, x-0
+ * and x^1 are reduced to x. Identical subexpressions are shared, so that (A1+B1)*(A1+B1) computes A1+B1 once.
+ * Every rewrite gives exactly the value the original expression would, so x+0 is left alone: it turns -0 into 0.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.1
+ */
+final class FormulaOptimizer {
+    /** The # of distinct nodes that are looked up by a linear scan, before a hash map is built. */
+    private static final int LINEAR_LIMIT = 16;
+
+    /** The canonical copy of every node created so far, while there are few of them. */
+    private final Node[] myNodes;
+
+    /** The # of distinct nodes created so far. */
+    private int myNodeCount;
+
+    /** The canonical copy of every node created so far, once there are many of them, or null. */
+    private Map<Node, Node> myNodeMap;
+
+    /** Creates an optimizer for a single formula. */
+    FormulaOptimizer() {
+        myNodes = new Node[LINEAR_LIMIT];
+    }
+
+    /**
+     * @param theValue The value of a literal.
+     * @return The node of the literal.
+     */
+    Node constant(final double theValue) {
+        return intern(new Node(FormulaProgram.PUSH_CONSTANT, theValue, null, null, null));
+    }
+
+    /**
+     * @param theRowOffset The row of the referenced cell, relative to the cell that holds the formula.
+     * @param theColumnOffset The column of the referenced cell, relative to the cell that holds the formula.
+     * @return The node of the cell reference.
+     */
+    Node cell(final int theRowOffset, final int theColumnOffset) {
+        return intern(new Node(FormulaProgram.LOAD_CELL, 0, new int[] {theRowOffset, theColumnOffset}, null, null));
+    }
+
+    /**
+     * @param theSheet The slot of the other sheet, see Spreadsheet.getLinkedSheet(...).
+     * @param theRowOffset The row of the referenced cell, relative to the cell that holds the formula.
+     * @param theColumnOffset The column of the referenced cell, relative to the cell that holds the formula.
+     * @return The node of the reference to a cell of another sheet.
+     */
+    Node externalCell(final int theSheet, final int theRowOffset, final int theColumnOffset) {
+        return intern(new Node(FormulaProgram.LOAD_EXTERNAL, 0,
+                new int[] {theSheet, theRowOffset, theColumnOffset}, null, null));
+    }
+
+    /**
+     * @param theFunction The function, see AggregateToken.
+     * @param theTopOffset The top row of the range, relative to the cell that holds the formula.
+     * @param theLeftOffset The left column of the range, relative to the cell that holds the formula.
+     * @param theBottomOffset The bottom row of the range, relative to the cell that holds the formula.
+     * @param theRightOffset The right column of the range, relative to the cell that holds the formula.
+     * @return The node of the aggregate.
+     */
+    Node aggregate(final int theFunction, final int theTopOffset, final int theLeftOffset,
+                   final int theBottomOffset, final int theRightOffset) {
+        return intern(new Node(FormulaProgram.AGGREGATE, 0,
+                new int[] {theFunction, theTopOffset, theLeftOffset, theBottomOffset, theRightOffset}, null, null));
+    }
+
+    /**
+     * Creates the node of a binary operator, folding and reducing it where possible.
+     * @param theOpcode The opcode of the operator.
+     * @param theLeft The canonical node of the left operand.
+     * @param theRight The canonical node of the right operand.
+     * @return The canonical node of the expression.
+     */
+    Node operator(final int theOpcode, final Node theLeft, final Node theRight) {
+        //Fold literal only subexpressions, with the same arithmetic that the program would use.
+        if (theLeft.myOpcode == FormulaProgram.PUSH_CONSTANT && theRight.myOpcode == FormulaProgram.PUSH_CONSTANT) {
+            return constant(FormulaProgram.apply(theOpcode, theLeft.myValue, theRight.myValue));
+        }
+
+        //Reduce the identities that give back the other operand unchanged.
+        if (theRight.isConstant(1) && (theOpcode == FormulaProgram.MULTIPLY || theOpcode == FormulaProgram.DIVIDE
+                || theOpcode == FormulaProgram.POWER)) {
+            return theLeft;
+        }
+        if (theLeft.isConstant(1) && theOpcode == FormulaProgram.MULTIPLY) {
+            return theRight;
+        }
+        if (theRight.isConstant(0) && theOpcode == FormulaProgram.SUBTRACT) {
+            return theLeft;
+        }
+
+        return intern(new Node(theOpcode, 0, null, theLeft, theRight));
+    }
+
+    /**
+     * Finishes the DAG of the formula.
+     * @param theRoot The node of the whole formula.
+     * @return The root, where every node now knows how many parents it has.
+     */
+    Node finish(final Node theRoot) {
+        countUses(theRoot);
+        return theRoot;
+    }
+
+    /**
+     * Helper method that finds the canonical copy of a node. Most formulas are small, so the nodes are scanned
+     * linearly until there are too many of them.
+     * @param theNode The node.
+     * @return The equal node created before, or the given node if it is the first of its kind.
+     */
+    private Node intern(final Node theNode) {
+        if (myNodeMap != null) {
+            Node existing = myNodeMap.putIfAbsent(theNode, theNode);
+            return existing != null ? existing : theNode;
+        }
+
+        for (int i = 0; i < myNodeCount; i++) {
+            if (myNodes[i].equals(theNode)) {
+                return myNodes[i];
+            }
+        }
+
+        if (myNodeCount < LINEAR_LIMIT) {
+            myNodes[myNodeCount++] = theNode;
+        } else {
+            myNodeMap = new HashMap<>();
+            for (Node node : myNodes) {
+                myNodeMap.put(node, node);
+            }
+            myNodeMap.put(theNode, theNode);
+        }
+        return theNode;
+    }
+
+    /**
+     * Helper method that counts the parents of every node of the DAG. The children of a node are only visited
+     * through its first parent.
+     * @param theNode The root of a sub-DAG.
+     */
+    private static void countUses(final Node theNode) {
+        theNode.myUses++;
+        if (theNode.myLeft != null && theNode.myUses == 1) {
+            countUses(theNode.myLeft);
+            countUses(theNode.myRight);
+        }
+    }
+
+    /** A node of an optimized formula, an opcode of FormulaProgram with its operands. */
+    static final class Node {
+        /** The opcode. */
+        final int myOpcode;
+
+        /** The value of a constant. */
+        final double myValue;
+
+        /** The inline operands of a cell, an external cell or an aggregate, or null. */
+        final int[] myOperands;
+
+        /** The left operand of an operator, or null. */
+        final Node myLeft;
+
+        /** The right operand of an operator, or null. */
+        final Node myRight;
+
+        /** The # of parents of the node, the root has one. */
+        int myUses;
+
+        /** The temporary slot that holds the value of a shared node once it is computed, or -1. */
+        int myTemp = -1;
+
+        /**
+         * Creates a node.
+         * @param theOpcode The opcode.
+         * @param theValue The value of a constant.
+         * @param theOperands The inline operands of a cell or an aggregate, or null.
+         * @param theLeft The left operand of an operator, or null.
+         * @param theRight The right operand of an operator, or null.
+         */
+        private Node(final int theOpcode, final double theValue, final int[] theOperands,
+                     final Node theLeft, final Node theRight) {
+            myOpcode = theOpcode;
+            myValue = theValue;
+            myOperands = theOperands;
+            myLeft = theLeft;
+            myRight = theRight;
+        }
+
+        /**
+         * @param theValue A value.
+         * @return True if the node is the constant with the given value.
+         */
+        boolean isConstant(final double theValue) {
+            return myOpcode == FormulaProgram.PUSH_CONSTANT
+                    && Double.doubleToLongBits(myValue) == Double.doubleToLongBits(theValue);
+        }
+
+        /**
+         * @return True if the value of the node is worth keeping for its other parents instead of recomputing it.
+         */
+        boolean isShareable() {
+            return myOpcode != FormulaProgram.PUSH_CONSTANT && myOpcode != FormulaProgram.LOAD_CELL
+                    && myOpcode != FormulaProgram.LOAD_EXTERNAL;
+        }
+
+        /**
+         * Nodes are equal when they compute the same thing. The children are canonical, so they compare by identity.
+         * @param theOther The other node.
+         * @return True if both nodes compute the same value.
+         */
+        @Override
+        public boolean equals(final Object theOther) {
+            if (!(theOther instanceof Node)) {
+                return false;
+            }
+            Node other = (Node) theOther;
+            return myOpcode == other.myOpcode
+                    && Double.doubleToLongBits(myValue) == Double.doubleToLongBits(other.myValue)
+                    && Arrays.equals(myOperands, other.myOperands)
+                    && myLeft == other.myLeft && myRight == other.myRight;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = myOpcode * 31 + Double.hashCode(myValue);
+            hash = hash * 31 + Arrays.hashCode(myOperands);
+            hash = hash * 31 + System.identityHashCode(myLeft);
+            return hash * 31 + System.identityHashCode(myRight);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package Model;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * Parses an infix formula in a single pass by precedence climbing, building the optimized DAG of the formula
+ * directly (see FormulaOptimizer). No tokens, postfix stacks or expression trees are created along the way.
+ * Of the operators, + and - bind weakest, then * and /, then ^, and every operator is left associative.
+ * The operands are integers, cell references and aggregates such as SUM(A1:B10).
+ * A cell reference may name another sheet of the workbook, as in Sheet2!A1, while ranges always lie on the
+ * formula's own sheet.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+final class FormulaParser {
+    /** The priority that no operator has, which ends an expression. */
+    private static final int NO_PRIORITY = -1;
+
+    /** The slot that a sheet resolver gives for the sheet that holds the formula itself. */
+    static final int OWN_SHEET = -1;
+
+    /** The formula. */
+    private final String myFormula;
+
+    /** The row that cell references are made relative to. */
+    private final int myAnchorRow;
+
+    /** The column that cell references are made relative to. */
+    private final int myAnchorColumn;
+
+    /** Finds the slot of a named sheet, see Spreadsheet.getSheetSlot(...). */
+    private final ToIntFunction<String> mySheetResolver;
+
+    /** The optimizer that creates the nodes. */
+    private final FormulaOptimizer myOptimizer;
+
+    /** The index of the next character to read. */
+    private int myIndex;
+
+    /** The # of operands and operators read so far. */
+    private int myNodeCount;
+
+    /** The row of the last cell reference read. */
+    private int myCellRow;
+
+    /** The column of the last cell reference read. */
+    private int myCellColumn;
+
+    /**
+     * Creates a parser for a formula held by the given cell.
+     * @param theFormula The infix formula.
+     * @param theAnchorRow The row that cell references are made relative to.
+     * @param theAnchorColumn The column that cell references are made relative to.
+     */
+    FormulaParser(final String theFormula, final int theAnchorRow, final int theAnchorColumn) {
+        this(theFormula, theAnchorRow, theAnchorColumn, theName -> {
+            throw new IllegalArgumentException("Unknown Sheet");
+        });
+    }
+
+    /**
+     * Creates a parser for a formula held by a cell of a workbook's sheet.
+     * @param theFormula The infix formula.
+     * @param theAnchorRow The row that cell references are made relative to.
+     * @param theAnchorColumn The column that cell references are made relative to.
+     * @param theSheetResolver Finds the slot of a named sheet, or OWN_SHEET for the formula's own sheet, and throws
+     *                         an IllegalArgumentException for an unknown sheet.
+     */
+    FormulaParser(final String theFormula, final int theAnchorRow, final int theAnchorColumn,
+                  final ToIntFunction<String> theSheetResolver) {
+        myFormula = theFormula;
+        myAnchorRow = theAnchorRow;
+        myAnchorColumn = theAnchorColumn;
+        mySheetResolver = theSheetResolver;
+        myOptimizer = new FormulaOptimizer();
+    }
+
+    /**
+     * Parses the whole formula.
+     * @return The root of the optimized DAG of the formula.
+     * @throws IllegalArgumentException When the formula is not valid.
+     */
+    FormulaOptimizer.Node parse() {
+        FormulaOptimizer.Node root = parseExpression(0);
+        skipSpaces();
+        if (myIndex < myFormula.length()) {
+            throw new IllegalArgumentException(myFormula.charAt(myIndex) == OperatorToken.RIGHT_PAREN
+                    ? "Unbalanced Parentheses" : "Invalid Formula Composition");
+        }
+        return myOptimizer.finish(root);
+    }
+
+    /**
+     * @return The # of operands and operators in the formula, the size its expression tree would have.
+     */
+    int getNodeCount() {
+        return myNodeCount;
+    }
+
+    /**
+     * Helper method that parses operands joined by operators of at least the given priority.
+     * @param theMinimumPriority The weakest priority that may join operands.
+     * @return The node of the expression.
+     */
+    private FormulaOptimizer.Node parseExpression(final int theMinimumPriority) {
+        FormulaOptimizer.Node left = parseOperand();
+
+        while (true) {
+            skipSpaces();
+            int priority = myIndex < myFormula.length() ? getPriority(myFormula.charAt(myIndex)) : NO_PRIORITY;
+            if (priority < theMinimumPriority) {
+                return left;
+            }
+
+            int opcode = getOpcode(myFormula.charAt(myIndex++));
+            //Only stronger operators join the right operand, so equal priorities associate to the left.
+            FormulaOptimizer.Node right = parseExpression(priority + 1);
+            left = myOptimizer.operator(opcode, left, right);
+            myNodeCount++;
+        }
+    }
+
+    /**
+     * Helper method that parses a literal, a cell reference, an aggregate or a parenthesized expression.
+     * @return The node of the operand.
+     */
+    private FormulaOptimizer.Node parseOperand() {
+        skipSpaces();
+        if (myIndex == myFormula.length()) {
+            throw new IllegalArgumentException("Incomplete Formula");
+        }
+
+        char ch = myFormula.charAt(myIndex);
+        if (ch == OperatorToken.LEFT_PAREN) {
+            myIndex++;
+            FormulaOptimizer.Node inner = parseExpression(0);
+            skipSpaces();
+            if (myIndex == myFormula.length()) {
+                throw new IllegalArgumentException("Unbalanced Parentheses");
+            }
+            if (myFormula.charAt(myIndex) != OperatorToken.RIGHT_PAREN) {
+                throw new IllegalArgumentException("Invalid Formula Composition");
+            }
+            myIndex++;
+            return inner;
+        }
+
+        myNodeCount++;
+        if (Character.isDigit(ch)) {
+            //Literals are read with int arithmetic, as they always have been.
+            int literal = 0;
+            while (myIndex < myFormula.length() && Character.isDigit(myFormula.charAt(myIndex))) {
+                literal = literal * 10 + (myFormula.charAt(myIndex++) - '0');
+            }
+            return myOptimizer.constant(literal);
+        }
+
+        int sheetNameEnd = SheetUtility.getSheetNameEnd(myFormula, myIndex);
+        if (sheetNameEnd >= 0) {
+            int sheet = mySheetResolver.applyAsInt(myFormula.substring(myIndex, sheetNameEnd));
+            myIndex = sheetNameEnd + 1;
+            parseCell();
+            return sheet == OWN_SHEET ? myOptimizer.cell(myCellRow - myAnchorRow, myCellColumn - myAnchorColumn)
+                    : myOptimizer.externalCell(sheet, myCellRow - myAnchorRow, myCellColumn - myAnchorColumn);
+        }
+
+        if (Character.isUpperCase(ch)) {
+            //Letters followed by a left parentheses name a function, otherwise they start a cell reference.
+            int nameEnd = myIndex;
+            while (nameEnd < myFormula.length() && Character.isUpperCase(myFormula.charAt(nameEnd))) {
+                nameEnd++;
+            }
+            if (nameEnd < myFormula.length() && myFormula.charAt(nameEnd) == OperatorToken.LEFT_PAREN) {
+                return parseAggregate(nameEnd);
+            }
+
+            parseCell();
+            return myOptimizer.cell(myCellRow - myAnchorRow, myCellColumn - myAnchorColumn);
+        }
+
+        throw new IllegalArgumentException(getPriority(ch) != NO_PRIORITY || ch == OperatorToken.RIGHT_PAREN
+                ? "Incomplete Formula" : "Invalid Formula Composition");
+    }
+
+    /**
+     * Helper method that parses an aggregate function applied to a range, such as SUM(A1:B10) or MAX(C3).
+     * @param theNameEnd The index of the left parentheses after the function name.
+     * @return The node of the aggregate.
+     */
+    private FormulaOptimizer.Node parseAggregate(final int theNameEnd) {
+        int function = AggregateToken.getFunction(myFormula.substring(myIndex, theNameEnd));
+        if (function < 0) {
+            throw new IllegalArgumentException("Unknown Function");
+        }
+
+        //A single cell is a range of one cell.
+        myIndex = theNameEnd + 1;
+        skipSpaces();
+        if (SheetUtility.getSheetNameEnd(myFormula, myIndex) >= 0) {
+            throw new IllegalArgumentException("Invalid Range");
+        }
+        parseCell();
+        int firstRow = myCellRow;
+        int firstColumn = myCellColumn;
+        if (myIndex < myFormula.length() && myFormula.charAt(myIndex) == AggregateToken.RANGE_SEPARATOR) {
+            myIndex++;
+            parseCell();
+        }
+
+        if (myIndex >= myFormula.length() || myFormula.charAt(myIndex) != OperatorToken.RIGHT_PAREN) {
+            throw new IllegalArgumentException("Invalid Range");
+        }
+        myIndex++;
+
+        return myOptimizer.aggregate(function,
+                Math.min(firstRow, myCellRow) - myAnchorRow, Math.min(firstColumn, myCellColumn) - myAnchorColumn,
+                Math.max(firstRow, myCellRow) - myAnchorRow, Math.max(firstColumn, myCellColumn) - myAnchorColumn);
+    }
+
+    /**
+     * Helper method that parses a cell reference into myCellRow and myCellColumn, with the same rules as
+     * SheetUtility.getCellToken(...).
+     */
+    private void parseCell() {
+        skipSpaces();
+        if (myIndex == myFormula.length()) {
+            throw new IllegalArgumentException("Incomplete Cell Reference");
+        }
+        if (!Character.isUpperCase(myFormula.charAt(myIndex))) {
+            throw new IllegalArgumentException("Invalid or Missing column value");
+        }
+
+        int column = myFormula.charAt(myIndex++) - 'A';
+        while (myIndex < myFormula.length() && Character.isUpperCase(myFormula.charAt(myIndex))) {
+            column = (column + 1) * 26 + (myFormula.charAt(myIndex++) - 'A');
+        }
+
+        if (myIndex == myFormula.length()) {
+            throw new IllegalArgumentException("Missing row value");
+        }
+        if (!Character.isDigit(myFormula.charAt(myIndex))) {
+            throw new IllegalArgumentException("Invalid row value");
+        }
+
+        int row = 0;
+        while (myIndex < myFormula.length() && Character.isDigit(myFormula.charAt(myIndex))) {
+            row = row * 10 + (myFormula.charAt(myIndex++) - '0');
+        }
+
+        myCellRow = row;
+        myCellColumn = column;
+    }
+
+    /** Helper method that skips the spaces before the next element. */
+    private void skipSpaces() {
+        while (myIndex < myFormula.length() && myFormula.charAt(myIndex) == ' ') {
+            myIndex++;
+        }
+    }
+
+    /**
+     * Helper method that finds the priority of a binary operator.
+     * @param theChar A character.
+     * @return The priority (see OperatorToken), or NO_PRIORITY if the character is not a binary operator.
+     */
+    private static int getPriority(final char theChar) {
+        return switch (theChar) {
+            case OperatorToken.PLUS -> OperatorToken.PLUS_PRIORITY;
+            case OperatorToken.MINUS -> OperatorToken.MINUS_PRIORITY;
+            case OperatorToken.MULTI -> OperatorToken.MULTI_PRIORITY;
+            case OperatorToken.DIV -> OperatorToken.DIV_PRIORITY;
+            case OperatorToken.EXP -> OperatorToken.EXP_PRIORITY;
+            default -> NO_PRIORITY;
+        };
+    }
+
+    /**
+     * Helper method that finds the opcode of a binary operator.
+     * @param theChar A binary operator.
+     * @return The opcode of FormulaProgram that applies it.
+     */
+    private static int getOpcode(final char theChar) {
+        return switch (theChar) {
+            case OperatorToken.PLUS -> FormulaProgram.ADD;
+            case OperatorToken.MINUS -> FormulaProgram.SUBTRACT;
+            case OperatorToken.MULTI -> FormulaProgram.MULTIPLY;
+            case OperatorToken.DIV -> FormulaProgram.DIVIDE;
+            default -> FormulaProgram.POWER;
+        };
+    }
+}
@@ -0,0 +1,529 @@
+package Model;
+
+import java.util.Arrays;
+
+/**
+ * A compact, executable form of a formula.
+ * The formula is stored as a flat postfix stream of int opcodes, with numeric constants in a separate double array
+ * and cell references stored inline as row and column offsets from the anchor cell that holds the formula. Evaluating it is a single loop over the opcodes
+ * that uses a caller supplied double array as the operand stack, so a formula costs two small arrays instead of
+ * a tree of token and node objects. A reference to a cell of another sheet of the workbook also names the slot of
+ * that sheet. Formulas are parsed and optimized by FormulaParser first, and the value of
+ * a subexpression that appears more than once is kept in a temporary slot at the bottom of the operand stack.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+class FormulaProgram {
+    /** Pushes a constant. Operand: the index of the constant. */
+    static final int PUSH_CONSTANT = 0;
+
+    /** Pushes the value of a cell. Operands: the row and the column offset of the cell from the anchor. */
+    static final int LOAD_CELL = 1;
+
+    /** Pops two values and pushes their sum. */
+    static final int ADD = 2;
+
+    /** Pops two values and pushes their difference. */
+    static final int SUBTRACT = 3;
+
+    /** Pops two values and pushes their product. */
+    static final int MULTIPLY = 4;
+
+    /** Pops two values and pushes their quotient. */
+    static final int DIVIDE = 5;
+
+    /** Pops two values and pushes the first raised to the power of the second. */
+    static final int POWER = 6;
+
+    /**
+     * Pushes an aggregate of a range. Operands: the function (see AggregateToken), then the row and column offsets
+     * of the top left corner, then those of the bottom right corner.
+     */
+    static final int AGGREGATE = 7;
+
+    /** Copies the value on top of the stack into a temporary slot, leaving it on the stack. Operand: the slot. */
+    static final int STORE_TEMP = 8;
+
+    /** Pushes the value of a temporary slot. Operand: the slot. */
+    static final int LOAD_TEMP = 9;
+
+    /**
+     * Pushes the value of a cell of another sheet of the same workbook. Operands: the slot of the sheet
+     * (see Spreadsheet.getLinkedSheet(...)), then the row and the column offset of the cell from the anchor.
+     */
+    static final int LOAD_EXTERNAL = 10;
+
+    /** The opcode stream. */
+    private final int[] myCode;
+
+    /** The numeric constants referenced by PUSH_CONSTANT. */
+    private final double[] myConstants;
+
+    /** The largest # of values on the operand stack while evaluating, including the temporary slots. */
+    private final int myMaxStackDepth;
+
+    /** The # of temporary slots, which sit below the operands on the stack. */
+    private final int myTempCount;
+
+    /**
+     * Creates a program from an already assembled opcode stream.
+     * @param theCode The opcode stream.
+     * @param theConstants The numeric constants.
+     * @param theMaxStackDepth The largest # of values on the operand stack while evaluating.
+     * @param theTempCount The # of temporary slots.
+     */
+    private FormulaProgram(final int[] theCode, final double[] theConstants, final int theMaxStackDepth,
+                           final int theTempCount) {
+        myCode = theCode;
+        myConstants = theConstants;
+        myMaxStackDepth = theMaxStackDepth;
+        myTempCount = theTempCount;
+    }
+
+    /**
+     * Parses a formula and assembles it into a program.
+     * @param theFormula The infix formula.
+     * @param theAnchorRow The row of the cell that holds the formula.
+     * @param theAnchorColumn The column of the cell that holds the formula.
+     * @return The assembled program, with cell references relative to the given cell.
+     * @throws IllegalArgumentException When the formula is not valid.
+     */
+    static FormulaProgram compile(final String theFormula, final int theAnchorRow, final int theAnchorColumn) {
+        return compile(new FormulaParser(theFormula, theAnchorRow, theAnchorColumn).parse());
+    }
+
+    /**
+     * Assembles a program from the optimized DAG of a formula.
+     * @param theRoot The root of the DAG, see FormulaParser.parse().
+     * @return The assembled program.
+     */
+    static FormulaProgram compile(final FormulaOptimizer.Node theRoot) {
+        Assembler assembler = new Assembler();
+        assembler.emitNode(theRoot);
+        return assembler.toProgram();
+    }
+
+    /**
+     * Applies a binary operator. Shared by the evaluation loop's semantics and constant folding, so that a folded
+     * constant is exactly the value the program would have computed.
+     * @param theOpcode The opcode of the operator.
+     * @param theLeft The left operand.
+     * @param theRight The right operand.
+     * @return The result.
+     */
+    static double apply(final int theOpcode, final double theLeft, final double theRight) {
+        return switch (theOpcode) {
+            case ADD -> theLeft + theRight;
+            case SUBTRACT -> theLeft - theRight;
+            case MULTIPLY -> theLeft * theRight;
+            case DIVIDE -> theLeft / theRight;
+            case POWER -> Math.pow(theLeft, theRight);
+            default -> throw new IllegalStateException("Bad Opcode");
+        };
+    }
+
+    /**
+     * Evaluates the program.
+     * @param theSheet The spreadsheet that the values of referenced cells are read from.
+     * @param theStack The operand stack, must hold at least getMaxStackDepth() values.
+     * @param theAnchorRow The row of the cell that holds the formula.
+     * @param theAnchorColumn The column of the cell that holds the formula.
+     * @return The value of the formula.
+     */
+    double evaluate(final Spreadsheet theSheet, final double[] theStack,
+                    final int theAnchorRow, final int theAnchorColumn) {
+        int[] code = myCode;
+        int top = myTempCount - 1;
+        int pc = 0;
+
+        while (pc < code.length) {
+            switch (code[pc++]) {
+                case PUSH_CONSTANT -> theStack[++top] = myConstants[code[pc++]];
+                case LOAD_CELL -> {
+                    theStack[++top] = theSheet.getValue(theAnchorRow + code[pc], theAnchorColumn + code[pc + 1]);
+                    pc += 2;
+                }
+                case ADD -> { top--; theStack[top] = theStack[top] + theStack[top + 1]; }
+                case SUBTRACT -> { top--; theStack[top] = theStack[top] - theStack[top + 1]; }
+                case MULTIPLY -> { top--; theStack[top] = theStack[top] * theStack[top + 1]; }
+                case DIVIDE -> { top--; theStack[top] = theStack[top] / theStack[top + 1]; }
+                case POWER -> { top--; theStack[top] = Math.pow(theStack[top], theStack[top + 1]); }
+                case AGGREGATE -> {
+                    theStack[++top] = theSheet.getAggregate(code[pc],
+                            theAnchorRow + code[pc + 1], theAnchorColumn + code[pc + 2],
+                            theAnchorRow + code[pc + 3], theAnchorColumn + code[pc + 4]);
+                    pc += 5;
+                }
+                case STORE_TEMP -> theStack[code[pc++]] = theStack[top];
+                case LOAD_TEMP -> theStack[++top] = theStack[code[pc++]];
+                case LOAD_EXTERNAL -> {
+                    theStack[++top] = theSheet.getExternalValue(code[pc],
+                            theAnchorRow + code[pc + 1], theAnchorColumn + code[pc + 2]);
+                    pc += 3;
+                }
+                default -> throw new IllegalStateException("Bad Opcode");
+            }
+        }
+
+        return theStack[myTempCount];
+    }
+
+    /**
+     * Evaluates the program for a run of cells that hold it in consecutive rows of a single column.
+     * Each opcode is applied to the whole run at once, with every slot of the operand stack widened into a lane
+     * of one value per cell: cell references become copies out of a column, and operators become plain loops over
+     * two lanes that the JIT compiler turns into SIMD instructions. Every cell gets exactly the value that
+     * evaluate(...) would give it.
+     * @param theSheet The spreadsheet that the values of referenced cells are read from.
+     * @param theLanes The operand stack, must hold at least getMaxStackDepth() lanes of at least theCount values.
+     * @param theTopRow The row of the first cell of the run.
+     * @param theColumn The column of the run.
+     * @param theCount The # of cells in the run.
+     * @return The lane that holds the value of each cell of the run, or null if a cell of the run refers to a cell
+     * outside the sheet, which is left for evaluate(...) to report.
+     */
+    double[] evaluateRun(final Spreadsheet theSheet, final double[][] theLanes, final int theTopRow,
+                         final int theColumn, final int theCount) {
+        if (!isWithinSheet(theSheet, theTopRow, theTopRow + theCount - 1, theColumn)) {
+            return null;
+        }
+
+        int[] code = myCode;
+        int top = myTempCount - 1;
+        int pc = 0;
+
+        while (pc < code.length) {
+            int opcode = code[pc++];
+            switch (opcode) {
+                case PUSH_CONSTANT -> Arrays.fill(theLanes[++top], 0, theCount, myConstants[code[pc++]]);
+                case LOAD_CELL -> {
+                    theSheet.getValues(theTopRow + code[pc], theColumn + code[pc + 1], theCount, theLanes[++top]);
+                    pc += 2;
+                }
+                case ADD, SUBTRACT, MULTIPLY, DIVIDE, POWER -> {
+                    top--;
+                    applyToLanes(opcode, theLanes[top], theLanes[top + 1], theCount);
+                }
+                case AGGREGATE -> {
+                    double[] lane = theLanes[++top];
+                    for (int i = 0; i < theCount; i++) {
+                        int row = theTopRow + i;
+                        lane[i] = theSheet.getAggregate(code[pc], row + code[pc + 1], theColumn + code[pc + 2],
+                                row + code[pc + 3], theColumn + code[pc + 4]);
+                    }
+                    pc += 5;
+                }
+                case STORE_TEMP -> System.arraycopy(theLanes[top], 0, theLanes[code[pc++]], 0, theCount);
+                case LOAD_TEMP -> System.arraycopy(theLanes[code[pc++]], 0, theLanes[++top], 0, theCount);
+                case LOAD_EXTERNAL -> {
+                    theSheet.getExternalValues(code[pc], theTopRow + code[pc + 1], theColumn + code[pc + 2], theCount,
+                            theLanes[++top]);
+                    pc += 3;
+                }
+                default -> throw new IllegalStateException("Bad Opcode");
+            }
+        }
+
+        return theLanes[myTempCount];
+    }
+
+    /**
+     * Helper method that applies a binary operator to two lanes, one loop per operator so that each loop stays
+     * simple enough to be vectorized.
+     * @param theOpcode The opcode of the operator.
+     * @param theLeft The left operands, which are replaced by the results.
+     * @param theRight The right operands.
+     * @param theCount The # of values in each lane.
+     */
+    private static void applyToLanes(final int theOpcode, final double[] theLeft, final double[] theRight,
+                                     final int theCount) {
+        switch (theOpcode) {
+            case ADD -> {
+                for (int i = 0; i < theCount; i++) {
+                    theLeft[i] = theLeft[i] + theRight[i];
+                }
+            }
+            case SUBTRACT -> {
+                for (int i = 0; i < theCount; i++) {
+                    theLeft[i] = theLeft[i] - theRight[i];
+                }
+            }
+            case MULTIPLY -> {
+                for (int i = 0; i < theCount; i++) {
+                    theLeft[i] = theLeft[i] * theRight[i];
+                }
+            }
+            case DIVIDE -> {
+                for (int i = 0; i < theCount; i++) {
+                    theLeft[i] = theLeft[i] / theRight[i];
+                }
+            }
+            case POWER -> {
+                for (int i = 0; i < theCount; i++) {
+                    theLeft[i] = Math.pow(theLeft[i], theRight[i]);
+                }
+            }
+            default -> throw new IllegalStateException("Bad Opcode");
+        }
+    }
+
+    /**
+     * Helper method that checks whether every cell and range the program refers to lies within the sheet, for each
+     * anchor of a run. References are fixed offsets from the anchor, so checking the first and the last anchor is enough.
+     * @param theSheet The spreadsheet that holds the anchors.
+     * @param theTopRow The row of the first anchor.
+     * @param theBottomRow The row of the last anchor.
+     * @param theColumn The column of the anchors.
+     * @return True if no reference falls outside the sheet.
+     */
+    private boolean isWithinSheet(final Spreadsheet theSheet, final int theTopRow, final int theBottomRow,
+                                  final int theColumn) {
+        int numRows = theSheet.getNumRows();
+        int numColumns = theSheet.getNumColumns();
+        int pc = 0;
+
+        while (pc < myCode.length) {
+            switch (myCode[pc++]) {
+                case PUSH_CONSTANT, STORE_TEMP, LOAD_TEMP -> pc++;
+                case LOAD_CELL -> {
+                    int column = theColumn + myCode[pc + 1];
+                    if (theTopRow + myCode[pc] < 0 || theBottomRow + myCode[pc] >= numRows
+                            || column < 0 || column >= numColumns) {
+                        return false;
+                    }
+                    pc += 2;
+                }
+                case AGGREGATE -> {
+                    //The same bounds that Spreadsheet.getAggregate(...) checks.
+                    if (theTopRow + myCode[pc + 1] < 0 || theColumn + myCode[pc + 2] < 0
+                            || theBottomRow + myCode[pc + 3] >= numRows
+                            || theColumn + myCode[pc + 4] >= numColumns) {
+                        return false;
+                    }
+                    pc += 5;
+                }
+                case LOAD_EXTERNAL -> {
+                    Spreadsheet sheet = theSheet.getLinkedSheet(myCode[pc]);
+                    int column = theColumn + myCode[pc + 2];
+                    if (theTopRow + myCode[pc + 1] < 0 || theBottomRow + myCode[pc + 1] >= sheet.getNumRows()
+                            || column < 0 || column >= sheet.getNumColumns()) {
+                        return false;
+                    }
+                    pc += 3;
+                }
+                default -> { /* Operators have no operands. */ }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the single cells referenced by the program. The cells within ranges are not included, see getRanges(...).
+     * @param theBuffer The buffer that the packed coordinates (see SheetUtility.packCell) are written to,
+     *                  must hold at least getReferenceCount() values.
+     * @param theAnchorRow The row of the cell that holds the formula.
+     * @param theAnchorColumn The column of the cell that holds the formula.
+     */
+    void getReferences(final long[] theBuffer, final int theAnchorRow, final int theAnchorColumn) {
+        int count = 0;
+        int pc = 0;
+
+        while (pc < myCode.length) {
+            switch (myCode[pc++]) {
+                case PUSH_CONSTANT, STORE_TEMP, LOAD_TEMP -> pc++;
+                case LOAD_CELL -> {
+                    theBuffer[count++] = SheetUtility.packCell(theAnchorRow + myCode[pc], theAnchorColumn + myCode[pc + 1]);
+                    pc += 2;
+                }
+                case AGGREGATE -> pc += 5;
+                case LOAD_EXTERNAL -> pc += 3;
+                default -> { /* Operators have no operands. */ }
+            }
+        }
+    }
+
+    /**
+     * @return The # of single cells referenced by the program.
+     */
+    int getReferenceCount() {
+        int count = 0;
+        int pc = 0;
+
+        while (pc < myCode.length) {
+            switch (myCode[pc++]) {
+                case PUSH_CONSTANT, STORE_TEMP, LOAD_TEMP -> pc++;
+                case LOAD_CELL -> {
+                    count++;
+                    pc += 2;
+                }
+                case AGGREGATE -> pc += 5;
+                case LOAD_EXTERNAL -> pc += 3;
+                default -> { /* Operators have no operands. */ }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Finds the ranges aggregated by the program.
+     * @param theAnchorRow The row of the cell that holds the formula.
+     * @param theAnchorColumn The column of the cell that holds the formula.
+     * @return The top row, left column, bottom row and right column of each range, in groups of 4.
+     */
+    int[] getRanges(final int theAnchorRow, final int theAnchorColumn) {
+        int[] result = new int[0];
+        int pc = 0;
+
+        while (pc < myCode.length) {
+            switch (myCode[pc++]) {
+                case PUSH_CONSTANT, STORE_TEMP, LOAD_TEMP -> pc++;
+                case LOAD_CELL -> pc += 2;
+                case LOAD_EXTERNAL -> pc += 3;
+                case AGGREGATE -> {
+                    result = Arrays.copyOf(result, result.length + 4);
+                    result[result.length - 4] = theAnchorRow + myCode[pc + 1];
+                    result[result.length - 3] = theAnchorColumn + myCode[pc + 2];
+                    result[result.length - 2] = theAnchorRow + myCode[pc + 3];
+                    result[result.length - 1] = theAnchorColumn + myCode[pc + 4];
+                    pc += 5;
+                }
+                default -> { /* Operators have no operands. */ }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the cells of other sheets referenced by the program.
+     * @param theAnchorRow The row of the cell that holds the formula.
+     * @param theAnchorColumn The column of the cell that holds the formula.
+     * @return The slot of the sheet, the row and the column of each referenced cell, in groups of 3.
+     */
+    int[] getExternalReferences(final int theAnchorRow, final int theAnchorColumn) {
+        int[] result = new int[0];
+        int pc = 0;
+
+        while (pc < myCode.length) {
+            switch (myCode[pc++]) {
+                case PUSH_CONSTANT, STORE_TEMP, LOAD_TEMP -> pc++;
+                case LOAD_CELL -> pc += 2;
+                case AGGREGATE -> pc += 5;
+                case LOAD_EXTERNAL -> {
+                    result = Arrays.copyOf(result, result.length + 3);
+                    result[result.length - 3] = myCode[pc];
+                    result[result.length - 2] = theAnchorRow + myCode[pc + 1];
+                    result[result.length - 1] = theAnchorColumn + myCode[pc + 2];
+                    pc += 3;
+                }
+                default -> { /* Operators have no operands. */ }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return The largest # of values on the operand stack while evaluating.
+     */
+    int getMaxStackDepth() {
+        return myMaxStackDepth;
+    }
+
+    /** A helper that accumulates opcodes and constants while a program is being built. */
+    private static class Assembler {
+        /** The opcodes emitted so far. */
+        private int[] myCode = new int[16];
+
+        /** The # of opcodes emitted so far. */
+        private int myCodeLength;
+
+        /** The constants emitted so far. */
+        private double[] myConstants = new double[4];
+
+        /** The # of constants emitted so far. */
+        private int myConstantCount;
+
+        /** The current depth of the operand stack. */
+        private int myDepth;
+
+        /** The largest depth of the operand stack so far. */
+        private int myMaxDepth;
+
+        /** The # of temporary slots handed out so far. */
+        private int myTempCount;
+
+        /**
+         * Emits a node of an optimized formula in postfix order. A shared node is computed where it is first
+         * needed and read back from its temporary slot everywhere else.
+         * @param theNode The node.
+         */
+        void emitNode(final FormulaOptimizer.Node theNode) {
+            if (theNode.myTemp >= 0) {
+                emit(LOAD_TEMP);
+                emit(theNode.myTemp);
+                push();
+                return;
+            }
+
+            switch (theNode.myOpcode) {
+                case PUSH_CONSTANT -> {
+                    if (myConstantCount == myConstants.length) {
+                        myConstants = Arrays.copyOf(myConstants, myConstantCount * 2);
+                    }
+                    myConstants[myConstantCount] = theNode.myValue;
+                    emit(PUSH_CONSTANT);
+                    emit(myConstantCount++);
+                    push();
+                }
+                case LOAD_CELL, LOAD_EXTERNAL, AGGREGATE -> {
+                    emit(theNode.myOpcode);
+                    for (int operand : theNode.myOperands) {
+                        emit(operand);
+                    }
+                    push();
+                }
+                default -> {
+                    emitNode(theNode.myLeft);
+                    emitNode(theNode.myRight);
+                    emit(theNode.myOpcode);
+                    myDepth--;
+                }
+            }
+
+            if (theNode.myUses > 1 && theNode.isShareable()) {
+                theNode.myTemp = myTempCount++;
+                emit(STORE_TEMP);
+                emit(theNode.myTemp);
+            }
+        }
+
+        /**
+         * Appends an opcode or an operand to the stream.
+         * @param theValue The opcode or operand.
+         */
+        private void emit(final int theValue) {
+            if (myCodeLength == myCode.length) {
+                myCode = Arrays.copyOf(myCode, myCodeLength * 2);
+            }
+            myCode[myCodeLength++] = theValue;
+        }
+
+        /** Records that a value was pushed onto the operand stack. */
+        private void push() {
+            myDepth++;
+            myMaxDepth = Math.max(myMaxDepth, myDepth);
+        }
+
+        /**
+         * @return The finished program, trimmed to size.
+         */
+        FormulaProgram toProgram() {
+            return new FormulaProgram(Arrays.copyOf(myCode, myCodeLength),
+                    Arrays.copyOf(myConstants, myConstantCount), myMaxDepth + myTempCount, myTempCount);
+        }
+    }
+}
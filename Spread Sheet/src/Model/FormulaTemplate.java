@@ -0,0 +1,243 @@
+package Model;
+
+/**
+ * A formula whose cell references are relative to the cell that holds it.
+ * Filled-down formulas such as B1*C1, B2*C2, B3*C3 all normalize to the same template, so the formula is parsed
+ * once and its program is shared by every cell that uses it. A cell only keeps a reference to its template,
+ * and its own coordinates act as the anchor that the relative references are resolved against.
+ * The formula text is kept as literal segments around the references, so that each cell's formula can be
+ * rendered back exactly as it was typed. A reference to another sheet, such as Sheet2!A1, keeps the sheet name
+ * as text and only its address is made relative.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+class FormulaTemplate {
+    /** Marks the start of a relative reference within a normalized key. Never valid inside a formula. */
+    private static final char REFERENCE_START = '{';
+
+    /** Marks the end of a relative reference within a normalized key. Never valid inside a formula. */
+    private static final char REFERENCE_END = '}';
+
+    /** The normalized formula, used as the key of the template. */
+    private final String myKey;
+
+    /** The compiled formula, with cell references relative to the anchor. */
+    private final FormulaProgram myProgram;
+
+    /** The text before, between and after the cell references of the formula. */
+    private final String[] mySegments;
+
+    /** The row and column offset of each cell reference, in pairs. */
+    private final int[] myOffsets;
+
+    /** The # of cells that currently use the template. */
+    private int myUseCount;
+
+    /**
+     * Creates a template from the formula of a single cell.
+     * @param theKey The normalized formula, see normalize(...).
+     * @param theFormula The infix formula as it was typed.
+     * @param theRow The row of the cell that holds the formula.
+     * @param theColumn The column of the cell that holds the formula.
+     * @param theProgram The program compiled with references relative to the given cell.
+     */
+    FormulaTemplate(final String theKey, final String theFormula, final int theRow, final int theColumn,
+                    final FormulaProgram theProgram) {
+        myKey = theKey;
+        myProgram = theProgram;
+
+        //Split the formula into the text around each cell reference.
+        int referenceCount = 0;
+        for (int index = 0; index < theFormula.length(); index = nextToken(theFormula, index)) {
+            if (isReference(theFormula, index)) {
+                referenceCount++;
+            }
+        }
+
+        mySegments = new String[referenceCount + 1];
+        myOffsets = new int[referenceCount * 2];
+
+        int segmentStart = 0;
+        int reference = 0;
+        CellToken cell = new CellToken();
+        for (int index = 0; index < theFormula.length(); index = nextToken(theFormula, index)) {
+            if (isReference(theFormula, index)) {
+                //The name of another sheet stays part of the text.
+                int cellStart = getCellStart(theFormula, index);
+                mySegments[reference] = theFormula.substring(segmentStart, cellStart);
+                segmentStart = SheetUtility.getCellToken(theFormula, cellStart, cell);
+                myOffsets[reference * 2] = cell.getRow() - theRow;
+                myOffsets[reference * 2 + 1] = cell.getColumn() - theColumn;
+                reference++;
+            }
+        }
+        mySegments[referenceCount] = theFormula.substring(segmentStart);
+    }
+
+    /**
+     * Normalizes a formula by replacing every cell reference with its offset from the given cell.
+     * Two formulas have the same key exactly when they differ only by where they are placed.
+     * @param theFormula The infix formula.
+     * @param theRow The row of the cell that holds the formula.
+     * @param theColumn The column of the cell that holds the formula.
+     * @return The normalized formula, or null if the formula contains text that can't be part of a valid formula.
+     */
+    static String normalize(final String theFormula, final int theRow, final int theColumn) {
+        StringBuilder result = new StringBuilder(theFormula.length() + 8);
+        CellToken cell = new CellToken();
+
+        int index = 0;
+        while (index < theFormula.length()) {
+            int next = nextToken(theFormula, index);
+
+            if (next < 0) {
+                return null;
+            } else if (isReference(theFormula, index)) {
+                int cellStart = getCellStart(theFormula, index);
+                SheetUtility.getCellToken(theFormula, cellStart, cell);
+                result.append(theFormula, index, cellStart)
+                        .append(REFERENCE_START)
+                        .append(cell.getRow() - theRow)
+                        .append(',')
+                        .append(cell.getColumn() - theColumn)
+                        .append(REFERENCE_END);
+            } else {
+                result.append(theFormula, index, next);
+            }
+            index = next;
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Helper method that checks if a lexical element of a formula is a cell reference, rather than a function name.
+     * @param theFormula The infix formula.
+     * @param theIndex The index of the first character of a valid element.
+     * @return True if the element is a cell reference.
+     */
+    private static boolean isReference(final String theFormula, final int theIndex) {
+        int index = getCellStart(theFormula, theIndex);
+        if (!Character.isUpperCase(theFormula.charAt(index))) {
+            return false;
+        }
+
+        while (Character.isUpperCase(theFormula.charAt(index))) {
+            index++;
+        }
+        return Character.isDigit(theFormula.charAt(index));
+    }
+
+    /**
+     * Helper method that skips the name of another sheet at the start of a cell reference, such as Sheet2!A1.
+     * @param theFormula The infix formula.
+     * @param theIndex The index of the first character of an element.
+     * @return The index of the cell address within the element, the given index if it names no sheet.
+     */
+    private static int getCellStart(final String theFormula, final int theIndex) {
+        int sheetNameEnd = SheetUtility.getSheetNameEnd(theFormula, theIndex);
+        return sheetNameEnd >= 0 ? sheetNameEnd + 1 : theIndex;
+    }
+
+    /**
+     * Helper method that skips over a single lexical element of a formula:
+     * a cell reference, possibly of another sheet, a function name, a run of digits, or one other character.
+     * @param theFormula The infix formula.
+     * @param theIndex The index of the first character of the element.
+     * @return The index just after the element, or -1 if the element can't be part of a valid formula.
+     */
+    private static int nextToken(final String theFormula, final int theIndex) {
+        int index = theIndex;
+        char ch = theFormula.charAt(index);
+
+        if (Character.isUpperCase(ch) || SheetUtility.getSheetNameEnd(theFormula, index) >= 0) {
+            //A cell reference is a sequence of capital letters followed by a sequence of digits, possibly after
+            //the name of another sheet, while a function name is a sequence of capital letters followed by
+            //a left parentheses.
+            index = getCellStart(theFormula, index);
+            boolean isQualified = index != theIndex;
+            if (index == theFormula.length() || !Character.isUpperCase(theFormula.charAt(index))) {
+                return -1;
+            }
+            while (index < theFormula.length() && Character.isUpperCase(theFormula.charAt(index))) {
+                index++;
+            }
+            if (!isQualified && index < theFormula.length() && theFormula.charAt(index) == OperatorToken.LEFT_PAREN) {
+                return index;
+            }
+            if (index == theFormula.length() || !Character.isDigit(theFormula.charAt(index))) {
+                return -1;
+            }
+            while (index < theFormula.length() && Character.isDigit(theFormula.charAt(index))) {
+                index++;
+            }
+            return index;
+
+        } else if (Character.isDigit(ch)) {
+            while (index < theFormula.length() && Character.isDigit(theFormula.charAt(index))) {
+                index++;
+            }
+            return index;
+
+        } else if (ch == ' ' || ch == OperatorToken.PLUS || ch == OperatorToken.MINUS
+                || ch == OperatorToken.MULTI || ch == OperatorToken.DIV || ch == OperatorToken.EXP
+                || ch == OperatorToken.LEFT_PAREN || ch == OperatorToken.RIGHT_PAREN
+                || ch == AggregateToken.RANGE_SEPARATOR) {
+            return index + 1;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Renders the formula as it appears in the given cell.
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     * @return The infix formula with absolute cell references.
+     */
+    String getFormula(final int theRow, final int theColumn) {
+        if (mySegments.length == 1) {
+            return mySegments[0];
+        }
+
+        StringBuilder result = new StringBuilder();
+        CellToken cell = new CellToken();
+        for (int i = 0; i < mySegments.length - 1; i++) {
+            cell.setRow(theRow + myOffsets[i * 2]);
+            cell.setColumn(theColumn + myOffsets[i * 2 + 1]);
+            result.append(mySegments[i]).append(SheetUtility.getCellAddress(cell));
+        }
+        result.append(mySegments[mySegments.length - 1]);
+
+        return result.toString();
+    }
+
+    /**
+     * @return The normalized formula that the template is registered under.
+     */
+    String getKey() {
+        return myKey;
+    }
+
+    /**
+     * @return The compiled formula, with cell references relative to the anchor.
+     */
+    FormulaProgram getProgram() {
+        return myProgram;
+    }
+
+    /** Records that one more cell uses the template. */
+    void acquire() {
+        myUseCount++;
+    }
+
+    /**
+     * Records that one cell stopped using the template.
+     * @return True if no cell uses the template anymore.
+     */
+    boolean release() {
+        return --myUseCount == 0;
+    }
+}
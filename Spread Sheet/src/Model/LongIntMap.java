@@ -0,0 +1,153 @@
+package Model;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map from non-negative long keys to int values.
+ * Used to look up cells by their packed coordinates without boxing or allocating a node per entry.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+class LongIntMap {
+    /** The value returned by get() when a key is missing. */
+    static final int MISSING = -1;
+
+    /** The marker for an unused slot. Packed cell coordinates are never negative. */
+    private static final long EMPTY = -1L;
+
+    /** The initial # of slots in the table. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The keys of the table. */
+    private long[] myKeys;
+
+    /** The values of the table. */
+    private int[] myValues;
+
+    /** The # of entries in the map. */
+    private int mySize;
+
+    /** Creates an empty map. */
+    LongIntMap() {
+        clear();
+    }
+
+    /**
+     * An accessor method for a single entry.
+     * @param theKey The key, must not be negative.
+     * @return The value mapped to the key, or MISSING if there is none.
+     */
+    int get(final long theKey) {
+        int mask = myKeys.length - 1;
+        for (int slot = hash(theKey, mask); myKeys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (myKeys[slot] == theKey) {
+                return myValues[slot];
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * Maps the given key to the given value, replacing any previous value.
+     * @param theKey The key, must not be negative.
+     * @param theValue The value.
+     */
+    void put(final long theKey, final int theValue) {
+        if ((mySize + 1) * 2 > myKeys.length) {
+            resize(myKeys.length * 2);
+        }
+
+        int mask = myKeys.length - 1;
+        int slot = hash(theKey, mask);
+        while (myKeys[slot] != EMPTY) {
+            if (myKeys[slot] == theKey) {
+                myValues[slot] = theValue;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        myKeys[slot] = theKey;
+        myValues[slot] = theValue;
+        mySize++;
+    }
+
+    /**
+     * Removes the given key from the map.
+     * The entries following it are shifted back, so that no tombstones are left behind.
+     * @param theKey The key to be removed.
+     */
+    void remove(final long theKey) {
+        int mask = myKeys.length - 1;
+        int slot = hash(theKey, mask);
+        while (myKeys[slot] != theKey) {
+            if (myKeys[slot] == EMPTY) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        //Shift back every entry of the probe sequence that would become unreachable.
+        int gap = slot;
+        slot = (slot + 1) & mask;
+        while (myKeys[slot] != EMPTY) {
+            int home = hash(myKeys[slot], mask);
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                myKeys[gap] = myKeys[slot];
+                myValues[gap] = myValues[slot];
+                gap = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        myKeys[gap] = EMPTY;
+        mySize--;
+    }
+
+    /**
+     * @return The # of entries in the map.
+     */
+    int size() {
+        return mySize;
+    }
+
+    /** Removes every entry from the map. */
+    void clear() {
+        myKeys = new long[INITIAL_CAPACITY];
+        Arrays.fill(myKeys, EMPTY);
+        myValues = new int[INITIAL_CAPACITY];
+        mySize = 0;
+    }
+
+    /**
+     * Helper method that rebuilds the table with the given # of slots.
+     * @param theCapacity The new # of slots, must be a power of 2.
+     */
+    private void resize(final int theCapacity) {
+        long[] oldKeys = myKeys;
+        int[] oldValues = myValues;
+
+        myKeys = new long[theCapacity];
+        Arrays.fill(myKeys, EMPTY);
+        myValues = new int[theCapacity];
+        mySize = 0;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Helper method that spreads a key over the table.
+     * @param theKey The key.
+     * @param theMask The # of slots minus one.
+     * @return The home slot of the key.
+     */
+    private static int hash(final long theKey, final int theMask) {
+        long mixed = theKey * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32)) & theMask;
+    }
+}
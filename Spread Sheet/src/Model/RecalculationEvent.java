@@ -0,0 +1,48 @@
+package Model;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A Java Flight Recorder event for each recalculation of a spreadsheet, so that recalculation spikes can be lined up
+ * with garbage collections and UI stalls in a recording. The duration of the event is the whole recalculation.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+@Name("Model.Recalculation")
+@Label("Spreadsheet Recalculation")
+@Category("Spreadsheet")
+@Description("Sorting and evaluating the cells of a spreadsheet that changed")
+class RecalculationEvent extends Event {
+    /** The # of cells in the evaluation order. */
+    @Name("cells")
+    @Label("Cells")
+    int myCells;
+
+    /** The # of cells that were evaluated, less than the order when cancelled. */
+    @Name("cellsEvaluated")
+    @Label("Cells Evaluated")
+    int myCellsEvaluated;
+
+    /** The longest dependency chain. */
+    @Name("longestChain")
+    @Label("Longest Chain")
+    int myLongestChain;
+
+    /** The time spent sorting the cells. */
+    @Name("sortTime")
+    @Label("Sort Time")
+    @Timespan
+    long mySortTime;
+
+    /** Whether the recalculation was cancelled. */
+    @Name("cancelled")
+    @Label("Cancelled")
+    boolean myCancelled;
+}
@@ -0,0 +1,165 @@
+package Model;
+
+/**
+ * The metrics of a single spreadsheet. Only the thread that changes the sheet records into it, while any thread
+ * (such as a JMX client) may read it, so the fields are volatile rather than atomic.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+final class RecalculationMetrics implements SheetMetrics {
+    /** The # of formulas parsed. */
+    private volatile long myCellsParsed;
+
+    /** The # of formulas that reused a template. */
+    private volatile long myTemplatesReused;
+
+    /** The time spent parsing. */
+    private volatile long myParseNanos;
+
+    /** The # of expression tree nodes created. */
+    private volatile long myTreeNodesCreated;
+
+    /** The time spent building whole dependency graphs. */
+    private volatile long myGraphBuildNanos;
+
+    /** The time spent sorting. */
+    private volatile long mySortNanos;
+
+    /** The # of recalculations. */
+    private volatile long myRecalculations;
+
+    /** The # of cells evaluated. */
+    private volatile long myCellsEvaluated;
+
+    /** The time spent evaluating. */
+    private volatile long myEvaluationNanos;
+
+    /** The # of cells evaluated by the last recalculation. */
+    private volatile long myLastCellsEvaluated;
+
+    /** The duration of the last recalculation. */
+    private volatile long myLastRecalculationNanos;
+
+    /** The longest dependency chain of the last recalculation. */
+    private volatile int myLongestChain;
+
+    /**
+     * Records that a formula was parsed.
+     * @param theNanos The time spent parsing and compiling it.
+     * @param theNodeCount The # of nodes of its expression tree.
+     */
+    void recordParse(final long theNanos, final int theNodeCount) {
+        myCellsParsed++;
+        myParseNanos += theNanos;
+        myTreeNodesCreated += theNodeCount;
+    }
+
+    /** Records that a formula reused the template of another cell. */
+    void recordTemplateReuse() {
+        myTemplatesReused++;
+    }
+
+    /**
+     * Records that the dependency graph of the whole sheet was built.
+     * @param theNanos The time spent building it.
+     */
+    void recordGraphBuild(final long theNanos) {
+        myGraphBuildNanos += theNanos;
+    }
+
+    /**
+     * Records a recalculation.
+     * @param theSortNanos The time spent sorting the cells.
+     * @param theEvaluationNanos The time spent evaluating the cells.
+     * @param theCellsEvaluated The # of cells evaluated.
+     * @param theLongestChain The # of levels of the evaluation order.
+     */
+    void recordRecalculation(final long theSortNanos, final long theEvaluationNanos,
+                             final int theCellsEvaluated, final int theLongestChain) {
+        myRecalculations++;
+        mySortNanos += theSortNanos;
+        myEvaluationNanos += theEvaluationNanos;
+        myCellsEvaluated += theCellsEvaluated;
+        myLastCellsEvaluated = theCellsEvaluated;
+        myLastRecalculationNanos = theSortNanos + theEvaluationNanos;
+        myLongestChain = theLongestChain;
+    }
+
+    @Override
+    public long getCellsParsed() {
+        return myCellsParsed;
+    }
+
+    @Override
+    public long getTemplatesReused() {
+        return myTemplatesReused;
+    }
+
+    @Override
+    public long getParseNanos() {
+        return myParseNanos;
+    }
+
+    @Override
+    public long getTreeNodesCreated() {
+        return myTreeNodesCreated;
+    }
+
+    @Override
+    public long getGraphBuildNanos() {
+        return myGraphBuildNanos;
+    }
+
+    @Override
+    public long getSortNanos() {
+        return mySortNanos;
+    }
+
+    @Override
+    public long getRecalculations() {
+        return myRecalculations;
+    }
+
+    @Override
+    public long getCellsEvaluated() {
+        return myCellsEvaluated;
+    }
+
+    @Override
+    public long getEvaluationNanos() {
+        return myEvaluationNanos;
+    }
+
+    @Override
+    public long getLastCellsEvaluated() {
+        return myLastCellsEvaluated;
+    }
+
+    @Override
+    public long getLastRecalculationNanos() {
+        return myLastRecalculationNanos;
+    }
+
+    @Override
+    public int getLongestChain() {
+        return myLongestChain;
+    }
+
+    @Override
+    public void reset() {
+        myCellsParsed = 0;
+        myTemplatesReused = 0;
+        myParseNanos = 0;
+        myTreeNodesCreated = 0;
+        myGraphBuildNanos = 0;
+        mySortNanos = 0;
+        myRecalculations = 0;
+        myCellsEvaluated = 0;
+        myEvaluationNanos = 0;
+        myLastCellsEvaluated = 0;
+        myLastRecalculationNanos = 0;
+        myLongestChain = 0;
+    }
+}
@@ -0,0 +1,24 @@
+package Model;
+
+/**
+ * Lets a long recalculation report its progress and be cancelled from another thread.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+public interface RecalculationMonitor {
+    /**
+     * Polled between batches of cells. Once it returns true, the recalculation stops and the cells that were not
+     * evaluated yet are kept for the next recalculation.
+     * @return True if the recalculation should stop.
+     */
+    boolean isCancelled();
+
+    /**
+     * Called once the cells are sorted into evaluation order, and again after each batch of cells is evaluated.
+     * @param theDone The # of cells evaluated so far.
+     * @param theTotal The # of cells the recalculation will evaluate.
+     */
+    void progressed(int theDone, int theTotal);
+}
@@ -0,0 +1,17 @@
+package Model;
+
+/**
+ * A listener that is told which cells of a spreadsheet changed.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+public interface SheetListener {
+    /**
+     * Called after each batch of a recalculation, or each clear, that changed at least one cell.
+     * Runs on the thread that caused the change, which may not be the event dispatch thread.
+     * @param theChanges The cells whose value or formula changed.
+     */
+    void cellsChanged(ChangeSet theChanges);
+}
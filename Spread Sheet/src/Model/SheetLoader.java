@@ -0,0 +1,131 @@
+package Model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Loads spreadsheets from the text format created by Spreadsheet.toString():
+ * [rows] [columns]
+ * [Cell Address] [Cell Formula]
+ * ...
+ * Every formula is set first without touching the dependency graph, then the graph is built once and the
+ * whole sheet is evaluated. read(...) stops before the evaluation, so that the caller can run the
+ * recalculation itself. This class has no GUI dependencies, so it can be used headless.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+public final class SheetLoader {
+    /** The size of the read buffer, large enough to keep the # of reads low on big files. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Utility class, no instances. */
+    private SheetLoader() {}
+
+    /**
+     * Loads and evaluates a spreadsheet file.
+     * @param thePath The path of the file.
+     * @return The loaded spreadsheet.
+     * @throws IOException When the file can't be read.
+     * @throws IllegalArgumentException When the file is not a valid spreadsheet, the message names the bad line.
+     * @throws IllegalStateException When the formulas of the file contain a dependency loop.
+     */
+    public static Spreadsheet load(final Path thePath) throws IOException {
+        Spreadsheet sheet = read(thePath);
+        sheet.recalculate();
+        return sheet;
+    }
+
+    /**
+     * Loads and evaluates a spreadsheet from any source of text. The reader is not closed.
+     * @param theReader The source of the spreadsheet text.
+     * @return The loaded spreadsheet.
+     * @throws IOException When the reader fails.
+     * @throws IllegalArgumentException When the text is not a valid spreadsheet, the message names the bad line.
+     * @throws IllegalStateException When the formulas contain a dependency loop.
+     */
+    public static Spreadsheet load(final Reader theReader) throws IOException {
+        Spreadsheet sheet = read(theReader);
+        sheet.recalculate();
+        return sheet;
+    }
+
+    /**
+     * Loads a spreadsheet file without evaluating it. Every cell is left for the next recalculation.
+     * @param thePath The path of the file.
+     * @return The loaded spreadsheet.
+     * @throws IOException When the file can't be read.
+     * @throws IllegalArgumentException When the file is not a valid spreadsheet, the message names the bad line.
+     * @throws IllegalStateException When the formulas contain a dependency loop, the message names its cells.
+     */
+    public static Spreadsheet read(final Path thePath) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                Files.newBufferedReader(thePath, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            return read(reader);
+        }
+    }
+
+    /**
+     * Loads a spreadsheet from any source of text without evaluating it. Every cell is left for the next
+     * recalculation. The reader is not closed.
+     * @param theReader The source of the spreadsheet text.
+     * @return The loaded spreadsheet.
+     * @throws IOException When the reader fails.
+     * @throws IllegalArgumentException When the text is not a valid spreadsheet, the message names the bad line.
+     * @throws IllegalStateException When the formulas contain a dependency loop, the message names its cells.
+     */
+    public static Spreadsheet read(final Reader theReader) throws IOException {
+        BufferedReader reader = theReader instanceof BufferedReader
+                ? (BufferedReader) theReader : new BufferedReader(theReader, BUFFER_SIZE);
+
+        Spreadsheet sheet = createSheet(reader.readLine());
+        CellToken cell = new CellToken();
+
+        //Read each cell and fill the sheet
+        int lineNumber = 1;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+
+            try {
+                int index = SheetUtility.getCellToken(line, 0, cell);
+                sheet.loadCellFormula(cell.getRow(), cell.getColumn(), line.substring(index).trim());
+            } catch (RuntimeException theError) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": " + theError.getMessage(), theError);
+            }
+        }
+
+        //Build the dependency graph once, which marks every cell for the next recalculation.
+        sheet.rebuildDependencies();
+
+        return sheet;
+    }
+
+    /**
+     * Helper method that creates an empty spreadsheet from the header line.
+     * @param theHeader The first line of the text, holding the # of rows and columns.
+     * @return The empty spreadsheet.
+     * @throws IllegalArgumentException When the header is missing or malformed.
+     */
+    private static Spreadsheet createSheet(final String theHeader) {
+        if (theHeader == null) {
+            throw new IllegalArgumentException("Line 1: Missing dimensions");
+        }
+
+        //Dimensions of the sheet are always the first 2 pieces of data
+        String[] dimensions = theHeader.trim().split("\\s+");
+        try {
+            return new Spreadsheet(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]));
+        } catch (RuntimeException theError) {
+            throw new IllegalArgumentException("Line 1: Bad dimensions", theError);
+        }
+    }
+}
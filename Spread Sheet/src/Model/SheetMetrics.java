@@ -0,0 +1,80 @@
+package Model;
+
+import javax.management.MXBean;
+
+/**
+ * Counters and timers that show where a spreadsheet spends its time. Every value is a running total since the
+ * sheet was created or since the last reset(), except for the values of the last recalculation.
+ * Also usable as a JMX MXBean, see Spreadsheet.getMetrics().
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+@MXBean
+public interface SheetMetrics {
+    /**
+     * @return The # of formulas that were parsed. Formulas that reuse the template of another cell are not parsed.
+     */
+    long getCellsParsed();
+
+    /**
+     * @return The # of formulas that reused the already parsed template of another cell.
+     */
+    long getTemplatesReused();
+
+    /**
+     * @return The time spent parsing and compiling formulas, in nanoseconds.
+     */
+    long getParseNanos();
+
+    /**
+     * @return The # of operands and operators read while parsing formulas, the size of their expression trees.
+     */
+    long getTreeNodesCreated();
+
+    /**
+     * @return The time spent building the dependency graph of a whole sheet when it is loaded, in nanoseconds.
+     */
+    long getGraphBuildNanos();
+
+    /**
+     * @return The time spent building the adjacency of the changed cells and sorting them topologically,
+     * in nanoseconds.
+     */
+    long getSortNanos();
+
+    /**
+     * @return The # of recalculations that evaluated at least one cell.
+     */
+    long getRecalculations();
+
+    /**
+     * @return The # of cells evaluated.
+     */
+    long getCellsEvaluated();
+
+    /**
+     * @return The time spent evaluating cells, in nanoseconds.
+     */
+    long getEvaluationNanos();
+
+    /**
+     * @return The # of cells evaluated by the last recalculation.
+     */
+    long getLastCellsEvaluated();
+
+    /**
+     * @return The time the last recalculation took from start to end, in nanoseconds.
+     */
+    long getLastRecalculationNanos();
+
+    /**
+     * @return The longest dependency chain of the last recalculation, the # of levels that had to be
+     * evaluated one after another.
+     */
+    int getLongestChain();
+
+    /** Sets every counter and timer back to 0. */
+    void reset();
+}
@@ -1,8 +1,5 @@
 package Model;
 
-import java.util.ArrayDeque;
-import java.util.Queue;
-
 /**
  * A utility class that contains useful methods for throughout the Spreadsheet project
  * @author Dillon Crookshank
@@ -11,6 +8,8 @@ import java.util.Queue;
  * @version 1.0
  */
 public class SheetUtility {
+    /** Separates the name of a sheet from a cell address, as in Sheet2!A1. */
+    public static final char SHEET_SEPARATOR = '!';
 
     /**
      * getCellToken
@@ -187,109 +186,70 @@ public class SheetUtility {
 
     }
 
-    public static Stack getPostFixStack(final String theInfixString) {
-        //scan through the string, and convert the formula String into an infix Queue of Tokens.
-        Queue<Token> infixQueue = new ArrayDeque<>();
-
-        int index = 0;
-        //iterate through the String
-        while (index < theInfixString.length()) {
-            //Iterate through whitespace characters
-            while (theInfixString.charAt(index) == ' ') {
-                index++;
-            }
-
-            //Next character is either a Letter(CellToken), a number(LiteralToken), or a symbol(OperatorToken)
-            if (Character.isUpperCase(theInfixString.charAt(index))) {
-                //Get the cell token
-                CellToken cell = new CellToken();
-                index = getCellToken(theInfixString, index, cell);
-
-                //Add the newly generated CellToken to the queue.
-                infixQueue.add(cell);
-
-            } else if (Character.isDigit(theInfixString.charAt(index))) {
-                //Scan one character at a time and form an integer.
-                int literal = 0;
-                while(index < theInfixString.length() && Character.isDigit(theInfixString.charAt(index))) {
-                    literal *= 10;
-                    literal += theInfixString.charAt(index) - '0';
-                    index++;
-                }
-                //Add the resulting integer to the queue as a LiteralToken.
-                infixQueue.add(new LiteralToken(literal));
-
-            } else if (isOperator(theInfixString.charAt(index))) {
-                //Operator can only be a single character; Add its token to the queue.
-                infixQueue.add(new OperatorToken(theInfixString.charAt(index)));
-                index++;
-
-            } else {
-                throw new IllegalArgumentException("Invalid Formula Composition");
-            }
-
+    /**
+     * Lets you check a name for a sheet of a workbook. A sheet name is a letter followed by letters and digits.
+     * @param theName The name that will be checked.
+     * @return True if the given name is a valid sheet name.
+     */
+    public static boolean isValidSheetName(final String theName) {
+        return getSheetNameEnd(theName + SHEET_SEPARATOR, 0) == theName.length();
+    }
 
+    /**
+     * Finds the end of the sheet name that qualifies a cell reference, such as the Sheet2 of Sheet2!A1.
+     * @param theString The string that is being read.
+     * @param theStart The index of the first char to process.
+     * @return The index of the SHEET_SEPARATOR just after the name, or -1 if no sheet name starts at the given index.
+     */
+    public static int getSheetNameEnd(final String theString, final int theStart) {
+        if (theStart >= theString.length() || !isAsciiLetter(theString.charAt(theStart))) {
+            return -1;
         }
 
-        //We now have the formula as a Queue of tokens, this will make the following steps simpler.
-        Stack returnStack = new Stack();
-        Stack operatorStack = new Stack();
-
-        while (!infixQueue.isEmpty()) {
-            //If the token is an Operand(LiteralToken/CellToken), pop and push it to the return stack
-            if (infixQueue.peek() instanceof LiteralToken || infixQueue.peek() instanceof CellToken) {
-                returnStack.push(infixQueue.poll());
-            }
-
-            //If the next token is a left parentheses, push it to the operator stack
-            else if (((OperatorToken) infixQueue.peek()).getOperator() == '(') {
-                operatorStack.push(infixQueue.poll());
-            }
-
-            //If the next token is a right parentheses, pop the operator stack into the return stack until you
-            // find a left parentheses, then pop the left parentheses
-            else if (((OperatorToken) infixQueue.peek()).getOperator() == ')') {
-                while (((OperatorToken) operatorStack.top()).getOperator() != '(') {
-                    returnStack.push(operatorStack.topAndPop());
-                }
-                operatorStack.pop();
-                infixQueue.poll();
-            }
-
-            //If the next token is an operator(OperatorToken)...
-            //While the operator stack isn't empty, and the priority of the next token is less than or equal to the
-            // priority of the top of the operator stack, pop and push the operator stack into the return stack.
-            else if (infixQueue.peek() instanceof OperatorToken) {
-                while (!operatorStack.isEmpty() && ((OperatorToken) infixQueue.peek()).priority() <= ((OperatorToken) operatorStack.top()).priority()) {
-                    returnStack.push(operatorStack.topAndPop());
-                }
-
-                operatorStack.push(infixQueue.poll());
-            }
+        int index = theStart + 1;
+        while (index < theString.length()
+                && (isAsciiLetter(theString.charAt(index))
+                || theString.charAt(index) >= '0' && theString.charAt(index) <= '9')) {
+            index++;
         }
+        return index < theString.length() && theString.charAt(index) == SHEET_SEPARATOR ? index : -1;
+    }
 
-        //pop and push all the remaining tokens from the operator stack into the return stack
-        while (!operatorStack.isEmpty()) {
-            returnStack.push(operatorStack.topAndPop());
-        }
+    /**
+     * Helper method that checks for the letters allowed in a sheet name.
+     * @param theChar A character.
+     * @return True if the character is an ASCII letter of either case.
+     */
+    private static boolean isAsciiLetter(final char theChar) {
+        return theChar >= 'A' && theChar <= 'Z' || theChar >= 'a' && theChar <= 'z';
+    }
 
-        return returnStack;
+    /**
+     * Packs the coordinates of a cell into a single long, so that cells can be used as primitive keys.
+     * The row is stored in the upper 32 bits and the column in the lower 32 bits.
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     * @return The packed coordinates.
+     */
+    public static long packCell(final int theRow, final int theColumn) {
+        return ((long) theRow << 32) | (theColumn & 0xFFFFFFFFL);
     }
 
     /**
-     * Return true if the char ch is an operator of a formula.
-     * Current operators are: +, -, *, /, ^, (, ).
-     *
-     * @param theChar A character.
-     * @return True if theChar is an operator.
+     * Unpacks the row from coordinates created by packCell(...).
+     * @param thePackedCell The packed coordinates.
+     * @return The row of the cell.
+     */
+    public static int getPackedRow(final long thePackedCell) {
+        return (int) (thePackedCell >>> 32);
+    }
+
+    /**
+     * Unpacks the column from coordinates created by packCell(...).
+     * @param thePackedCell The packed coordinates.
+     * @return The column of the cell.
      */
-    private static boolean isOperator(char theChar) {
-        return ((theChar == OperatorToken.PLUS) ||
-                (theChar == OperatorToken.MINUS) ||
-                (theChar == OperatorToken.MULTI) ||
-                (theChar == OperatorToken.DIV) ||
-                (theChar == OperatorToken.LEFT_PAREN) ||
-                (theChar == OperatorToken.RIGHT_PAREN) ||
-                (theChar == OperatorToken.EXP));
+    public static int getPackedColumn(final long thePackedCell) {
+        return (int) thePackedCell;
     }
 }
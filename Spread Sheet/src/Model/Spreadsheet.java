@@ -1,10 +1,25 @@
 package Model;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.LongConsumer;
 
 /**
- * TODO:
- * Implement topological sort.
+ * A spreadsheet of cells whose formulas can reference each other.
+ * A dependency graph is kept up to date as formulas change, so that a recalculation only
+ * re-evaluates the cells downstream of the changed cells.
+ * Formulas that only differ by where they are placed share a single parsed template.
+ * Aggregates over ranges, such as SUM(A1:A100000), are answered by per-column indexes in logarithmic time.
+ * Listeners are told exactly which cells changed after each recalculation.
+ * Many edits can be grouped into a transaction, which is validated, checked for loops and recalculated once.
+ * Edits are journaled as deltas, so that they can be undone and redone.
+ * A spreadsheet may belong to a Workbook, where its formulas can refer to cells of the other sheets, as in Sheet2!A1.
  * @author Dillon Crookshank
  * @author Halim Lee
  * @author Thinh Le
@@ -20,8 +35,26 @@ public class Spreadsheet {
     /** The smallest any dimension of the spreadsheet can be. */
     public static final int MINIMUM_DIMENSION = 2;
 
-    /** The array that holds all the cells of the spreadsheet. */
-    private Cell[][] myCells;
+    /** The # of cell edits that the undo history holds by default. */
+    public static final int DEFAULT_JOURNAL_LIMIT = 10000;
+
+    /** The smallest level that is split across the recalculation pool, smaller levels are evaluated serially. */
+    private static final int PARALLEL_THRESHOLD = 1024;
+
+    /** The # of cells evaluated between two progress reports and checks for cancellation. */
+    private static final int RECALCULATION_BATCH_SIZE = 4096;
+
+    /** The # of cells that a single task of the recalculation pool evaluates. */
+    private static final int PARALLEL_CHUNK_SIZE = 256;
+
+    /** The fewest cells of a column sharing a formula that are evaluated as one run instead of one at a time. */
+    private static final int MINIMUM_RUN_LENGTH = 8;
+
+    /** The most cells that are evaluated as one run, which bounds the lanes of the run's operand stack. */
+    private static final int MAXIMUM_RUN_LENGTH = 256;
+
+    /** The sparse store that holds all the filled cells of the spreadsheet. */
+    private final CellStore myCells;
 
     /** Holds the # of rows in the spreadsheet currently. */
     private final int myNumRows;
@@ -32,6 +65,45 @@ public class Spreadsheet {
     /** The # of decimal places that are used when a cell value is polled. */
     private int myDecimalPrecision;
 
+    /** The formula templates in use, by their normalized formula. */
+    private final Map<String, FormulaTemplate> myTemplates;
+
+    /** The dependency graph between cells, which also tracks the cells changed since the last recalculation. */
+    private final DependencyGraph myGraph;
+
+    /** A reusable buffer that collects the packed cells referenced by a formula. */
+    private long[] myReferenceBuffer;
+
+    /** The operand stack used by every formula program evaluated on the calling thread. */
+    private double[] myOperandStack;
+
+    /** The pool that large levels are evaluated on, or null if recalculation is serial. */
+    private ForkJoinPool myRecalculationPool;
+
+    /** The listeners that are told which cells changed. */
+    private final List<SheetListener> myListeners;
+
+    /** The aggregate index of each column, null for the columns that no range covers. */
+    private AggregateIndex[] myIndexes;
+
+    /** Every aggregate index that has been created. */
+    private final List<AggregateIndex> myActiveIndexes;
+
+    /** The counters and timers of the sheet. */
+    private final RecalculationMetrics myMetrics;
+
+    /** The formulas staged by the open transaction, by packed cell in the order they were first set, or null. */
+    private Map<Long, String> myPendingEdits;
+
+    /** The undo and redo history of the edits. */
+    private final EditJournal myJournal;
+
+    /** The workbook that the sheet belongs to, or null. */
+    private Workbook myWorkbook;
+
+    /** The other sheets of the workbook that formulas have referred to, by the slot that their programs use. */
+    private final List<Spreadsheet> myLinkedSheets;
+
     /** Creates an empty 10x10 spreadsheet. */
     public Spreadsheet() {
         this(DEFAULT_ROWS, DEFAULT_COLUMNS);
@@ -48,12 +120,23 @@ public class Spreadsheet {
             throw new IllegalArgumentException("Spreadsheet too small.");
         }
 
-        myCells = new Cell[theNumRows][theNumColumns];
+        myCells = new CellStore(theNumRows, theNumColumns);
 
         myNumRows = theNumRows;
         myNumColumns = theNumColumns;
 
         myDecimalPrecision = 1;
+
+        myTemplates = new HashMap<>();
+        myGraph = new DependencyGraph();
+        myReferenceBuffer = new long[8];
+        myOperandStack = new double[8];
+        myListeners = new ArrayList<>();
+        myIndexes = new AggregateIndex[theNumColumns];
+        myActiveIndexes = new ArrayList<>();
+        myMetrics = new RecalculationMetrics();
+        myJournal = new EditJournal(DEFAULT_JOURNAL_LIMIT);
+        myLinkedSheets = new ArrayList<>();
     }
 
     /**
@@ -79,12 +162,13 @@ public class Spreadsheet {
      */
     public String getCellValue(final int theRow, final int theColumn) {
         // Check if the given cell coordinates are valid.
-        if (theRow > getNumRows() || theRow < 0
-                || theColumn > getNumColumns() || theColumn < 0) {
+        if (theRow >= getNumRows() || theRow < 0
+                || theColumn >= getNumColumns() || theColumn < 0) {
             throw new IllegalArgumentException("Bad Cell");
         }
 
-        return myCells[theRow][theColumn] != null ? String.format("%." + myDecimalPrecision +"f", myCells[theRow][theColumn].getValue()) : "";
+        return myCells.get(theRow, theColumn) != null
+                ? myCells.getDisplay(theRow, theColumn, myDecimalPrecision) : "";
     }
 
     /**
@@ -94,16 +178,12 @@ public class Spreadsheet {
      */
     public double getCellValue(final CellToken theCell) {
         // Check if the given cell token contains valid cell coordinates.
-        if (theCell.getRow() > getNumRows() || theCell.getRow() < 0
-                || theCell.getColumn() > getNumColumns() || theCell.getColumn() < 0) {
+        if (theCell.getRow() >= getNumRows() || theCell.getRow() < 0
+                || theCell.getColumn() >= getNumColumns() || theCell.getColumn() < 0) {
             throw new IllegalArgumentException("Bad Cell");
         }
 
-        // Create temp variables to simplify the return statement.
-        int row = theCell.getRow();
-        int column = theCell.getColumn();
-
-        return myCells[row][column] != null ? myCells[row][column].getValue() : 0;
+        return myCells.getValue(theCell.getRow(), theCell.getColumn());
     }
 
     /**
@@ -115,12 +195,13 @@ public class Spreadsheet {
      */
     public String getCellFormula(final int theRow, final int theColumn) {
         // Check if the given cell coordinates are valid.
-        if (theRow > getNumRows() || theRow < 0
-                || theColumn > getNumColumns() || theColumn < 0) {
+        if (theRow >= getNumRows() || theRow < 0
+                || theColumn >= getNumColumns() || theColumn < 0) {
             throw new IllegalArgumentException("Bad Cell");
         }
 
-        return myCells[theRow][theColumn] != null ? myCells[theRow][theColumn].getFormula() : "";
+        FormulaTemplate template = myCells.get(theRow, theColumn);
+        return template != null ? template.getFormula(theRow, theColumn) : "";
     }
 
     /**
@@ -135,52 +216,707 @@ public class Spreadsheet {
 
     /**
      * Changes the given cell's formula.
+     * The dependency graph is updated and the cell is marked for the next recalculation,
+     * but no values are evaluated until recalculate() or evaluateSheet() is called.
+     * Within a transaction the formula is only staged, and it is validated when the transaction is committed.
      * @param theCell The reference to the cell.
      * @param theFormula The infix formula as a String.
      * @throws IllegalArgumentException When the given cell reference does not exist on the spreadsheet.
+     * @throws IllegalStateException When the new formula creates a dependency loop, the cell is left unchanged.
      */
     public void changeCellFormula(final CellToken theCell, final String theFormula) {
         // Check if the given cell token contains valid cell coordinates.
-        if (theCell.getRow() > getNumRows() || theCell.getRow() < 0
-                || theCell.getColumn() > getNumColumns() || theCell.getColumn() < 0) {
+        if (theCell.getRow() >= getNumRows() || theCell.getRow() < 0
+                || theCell.getColumn() >= getNumColumns() || theCell.getColumn() < 0) {
             throw new IllegalArgumentException("Cell Does not exist.");
         }
 
+        if (myPendingEdits != null) {
+            myPendingEdits.put(SheetUtility.packCell(theCell.getRow(), theCell.getColumn()), theFormula);
+            return;
+        }
+
         if (theFormula.trim().equals("")) {
-            myCells[theCell.getRow()][theCell.getColumn()] = null;
+            clearCell(theCell);
             return;
         }
 
-        //Create a new expression tree based on the given formula String.
-        Stack postFixFormula = SheetUtility.getPostFixStack(theFormula);
-        ExpressionTree formulaTree = new ExpressionTree(postFixFormula);
+        int row = theCell.getRow();
+        int column = theCell.getColumn();
+        String oldFormula = getCellFormula(row, column);
+
+        //A loop through other sheets is only found once the cell is in place, which applyEdits(...) can undo.
+        if (myWorkbook != null) {
+            applyEdits(Map.of(SheetUtility.packCell(row, column), theFormula));
+            myJournal.record(SheetUtility.packCell(row, column), oldFormula, theFormula);
+            return;
+        }
+
+        //The graph rejects a dependency loop before the cell is replaced.
+        FormulaTemplate template = acquireTemplate(theFormula, row, column);
+        connectToAggregates(row, column);
+        try {
+            int referenceCount = collectReferences(template, row, column);
+            myGraph.setPrecedents(SheetUtility.packCell(row, column), myReferenceBuffer, referenceCount);
+        } catch (IllegalStateException theError) {
+            releaseTemplate(template);
+            throw theError;
+        }
+        putCell(row, column, template);
+        myJournal.record(SheetUtility.packCell(row, column), oldFormula, theFormula);
+    }
+
+    /**
+     * Sets a cell's formula without touching the dependency graph.
+     * Used by SheetLoader, which sets every formula first and then calls rebuildDependencies() once.
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     * @param theFormula The infix formula as a String, empty formulas are ignored.
+     * @throws IllegalArgumentException When the cell does not exist on the spreadsheet, or the formula is not valid.
+     */
+    void loadCellFormula(final int theRow, final int theColumn, final String theFormula) {
+        // Check if the given cell coordinates are valid.
+        if (theRow >= myNumRows || theRow < 0 || theColumn >= myNumColumns || theColumn < 0) {
+            throw new IllegalArgumentException("Cell Does not exist.");
+        }
+
+        if (!theFormula.isBlank()) {
+            putCell(theRow, theColumn, acquireTemplate(theFormula, theRow, theColumn));
+        }
+    }
+
+    /**
+     * Rebuilds the whole dependency graph from the formulas of every filled cell,
+     * and marks every filled cell for the next recalculation.
+     * @throws IllegalStateException When the formulas contain a dependency loop, the message names its cells.
+     */
+    void rebuildDependencies() {
+        long start = System.nanoTime();
+        myGraph.clear();
+        myCells.forEach((theRow, theColumn, theTemplate) -> {
+            int referenceCount = collectReferences(theTemplate, theRow, theColumn);
+            myGraph.loadPrecedents(SheetUtility.packCell(theRow, theColumn), myReferenceBuffer, referenceCount);
+        });
+        myGraph.rebuildOrder();
+        myMetrics.recordGraphBuild(System.nanoTime() - start);
+    }
+
+    /**
+     * Helper method that collects the packed coordinates of the cells referenced by a cell's formula
+     * into the reference buffer. A range references its filled cells, and the cell itself when the range covers it.
+     * @param theTemplate The formula template of the cell.
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     * @return The # of references in the buffer.
+     */
+    private int collectReferences(final FormulaTemplate theTemplate, final int theRow, final int theColumn) {
+        FormulaProgram program = theTemplate.getProgram();
+
+        int referenceCount = program.getReferenceCount();
+        if (referenceCount > myReferenceBuffer.length) {
+            myReferenceBuffer = new long[referenceCount];
+        }
+        program.getReferences(myReferenceBuffer, theRow, theColumn);
+
+        int[] ranges = program.getRanges(theRow, theColumn);
+        int[] count = {referenceCount};
+        for (int i = 0; i < ranges.length; i += 4) {
+            myCells.forEachIn(ranges[i], ranges[i + 1], ranges[i + 2], ranges[i + 3],
+                    (theMemberRow, theMemberColumn, theMember) ->
+                            addReference(count[0]++, SheetUtility.packCell(theMemberRow, theMemberColumn)));
+
+            if (ranges[i] <= theRow && theRow <= ranges[i + 2] && ranges[i + 1] <= theColumn
+                    && theColumn <= ranges[i + 3]) {
+                addReference(count[0]++, SheetUtility.packCell(theRow, theColumn));
+            }
+        }
+
+        return count[0];
+    }
 
-        //Add the cell to the spreadsheet matrix.
-        myCells[theCell.getRow()][theCell.getColumn()] = new Cell(theFormula, formulaTree);
+    /**
+     * Helper method that writes a reference into the reference buffer, growing it when it is full.
+     * @param theIndex The index to write to.
+     * @param thePackedCell The packed coordinates of the referenced cell.
+     */
+    private void addReference(final int theIndex, final long thePackedCell) {
+        if (theIndex == myReferenceBuffer.length) {
+            myReferenceBuffer = Arrays.copyOf(myReferenceBuffer, theIndex * 2);
+        }
+        myReferenceBuffer[theIndex] = thePackedCell;
+    }
+
+    /**
+     * Helper method that connects a cell to every aggregate whose range covers it, in case it was empty so far.
+     * An empty cell has no precedents, so the new edges can never create a dependency loop.
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     */
+    private void connectToAggregates(final int theRow, final int theColumn) {
+        AggregateIndex index = myIndexes[theColumn];
+        if (index != null) {
+            long packed = SheetUtility.packCell(theRow, theColumn);
+            index.forEachWatcher(theRow, theAggregate -> myGraph.addPrecedent(theAggregate, packed));
+        }
+    }
+
+    /**
+     * Helper method that finds the template of a formula for a new cell, sharing the template of any other cell with
+     * the same relative formula, and counts the new cell as one of its users.
+     * @param theFormula The infix formula as a String.
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     * @return The template of the new cell.
+     * @throws IllegalArgumentException When the formula is not valid, or refers to a cell outside of its sheet.
+     */
+    private FormulaTemplate acquireTemplate(final String theFormula, final int theRow, final int theColumn) {
+        FormulaTemplate template = getTemplate(theFormula, theRow, theColumn);
+        template.acquire();
+
+        //Every cell a formula refers to must lie within the sheet, so bad formulas are rejected before they are placed.
+        FormulaProgram program = template.getProgram();
+        int referenceCount = program.getReferenceCount();
+        if (referenceCount > myReferenceBuffer.length) {
+            myReferenceBuffer = new long[referenceCount];
+        }
+        program.getReferences(myReferenceBuffer, theRow, theColumn);
+        for (int i = 0; i < referenceCount; i++) {
+            int row = SheetUtility.getPackedRow(myReferenceBuffer[i]);
+            int column = SheetUtility.getPackedColumn(myReferenceBuffer[i]);
+            if (row < 0 || column < 0 || row >= myNumRows || column >= myNumColumns) {
+                releaseTemplate(template);
+                throw new IllegalArgumentException("Bad Cell");
+            }
+        }
+
+        //Ranges are also indexed as soon as the cell is placed.
+        int[] ranges = program.getRanges(theRow, theColumn);
+        for (int i = 0; i < ranges.length; i += 4) {
+            if (ranges[i] < 0 || ranges[i + 1] < 0 || ranges[i + 2] >= myNumRows || ranges[i + 3] >= myNumColumns) {
+                releaseTemplate(template);
+                throw new IllegalArgumentException("Bad Cell");
+            }
+        }
+
+        //Cells of other sheets must lie within their own sheets.
+        int[] links = program.getExternalReferences(theRow, theColumn);
+        for (int i = 0; i < links.length; i += 3) {
+            Spreadsheet sheet = myLinkedSheets.get(links[i]);
+            if (links[i + 1] < 0 || links[i + 2] < 0
+                    || links[i + 1] >= sheet.myNumRows || links[i + 2] >= sheet.myNumColumns) {
+                releaseTemplate(template);
+                throw new IllegalArgumentException("Bad Cell");
+            }
+        }
+
+        return template;
+    }
+
+    /**
+     * Helper method that finds the template of a formula, parsing the formula only when no cell uses its template yet.
+     * @param theFormula The infix formula as a String.
+     * @param theRow The row of the cell that will hold the formula.
+     * @param theColumn The column of the cell that will hold the formula.
+     * @return The formula template.
+     * @throws IllegalArgumentException When the formula is not valid.
+     */
+    private FormulaTemplate getTemplate(final String theFormula, final int theRow, final int theColumn) {
+        String key = FormulaTemplate.normalize(theFormula, theRow, theColumn);
+        if (key == null) {
+            throw new IllegalArgumentException("Invalid Formula Composition");
+        }
+
+        FormulaTemplate template = myTemplates.get(key);
+        if (template == null) {
+            //Parse the formula String in a single pass, and assemble it into a program.
+            long start = System.nanoTime();
+            FormulaParser parser = new FormulaParser(theFormula, theRow, theColumn, this::getSheetSlot);
+            FormulaProgram program = FormulaProgram.compile(parser.parse());
+            myMetrics.recordParse(System.nanoTime() - start, parser.getNodeCount());
+
+            if (program.getMaxStackDepth() > myOperandStack.length) {
+                myOperandStack = new double[program.getMaxStackDepth()];
+            }
+
+            template = new FormulaTemplate(key, theFormula, theRow, theColumn, program);
+            myTemplates.put(key, template);
+        } else {
+            myMetrics.recordTemplateReuse();
+        }
+
+        return template;
+    }
+
+    /**
+     * Helper method that replaces the formula of a cell, and forgets the old template once no cell uses it anymore.
+     * The cell's value starts over at 0.
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     * @param theTemplate The new template, already acquired, or null to empty the cell.
+     */
+    private void putCell(final int theRow, final int theColumn, final FormulaTemplate theTemplate) {
+        FormulaTemplate oldTemplate = myCells.get(theRow, theColumn);
+        if (oldTemplate != null) {
+            watchRanges(oldTemplate, theRow, theColumn, false);
+            linkSheets(oldTemplate, theRow, theColumn, false);
+            releaseTemplate(oldTemplate);
+        }
+
+        myCells.put(theRow, theColumn, theTemplate);
+
+        if (theTemplate != null) {
+            watchRanges(theTemplate, theRow, theColumn, true);
+            linkSheets(theTemplate, theRow, theColumn, true);
+        }
+        if (myIndexes[theColumn] != null) {
+            myIndexes[theColumn].markChanged(theRow);
+        }
+    }
+
+    /**
+     * Helper method that registers or unregisters the ranges of a cell with the indexes of their columns,
+     * creating the indexes as needed.
+     * @param theTemplate The formula template of the cell.
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     * @param isWatching True to register the ranges, false to unregister them.
+     */
+    private void watchRanges(final FormulaTemplate theTemplate, final int theRow, final int theColumn,
+                             final boolean isWatching) {
+        int[] ranges = theTemplate.getProgram().getRanges(theRow, theColumn);
+        long packed = SheetUtility.packCell(theRow, theColumn);
+
+        for (int i = 0; i < ranges.length; i += 4) {
+            for (int column = ranges[i + 1]; column <= ranges[i + 3]; column++) {
+                if (myIndexes[column] == null) {
+                    myIndexes[column] = new AggregateIndex(myCells, column, myNumRows);
+                    myActiveIndexes.add(myIndexes[column]);
+                }
+
+                if (isWatching) {
+                    myIndexes[column].addWatcher(packed, ranges[i], ranges[i + 2]);
+                } else {
+                    myIndexes[column].removeWatcher(packed, ranges[i], ranges[i + 2]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method that registers or unregisters the references of a cell to other sheets with the workbook.
+     * @param theTemplate The formula template of the cell.
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     * @param isLinking True to register the references, false to unregister them.
+     */
+    private void linkSheets(final FormulaTemplate theTemplate, final int theRow, final int theColumn,
+                            final boolean isLinking) {
+        int[] links = theTemplate.getProgram().getExternalReferences(theRow, theColumn);
+        for (int i = 0; i < links.length; i += 3) {
+            myWorkbook.link(this, SheetUtility.packCell(theRow, theColumn), myLinkedSheets.get(links[i]),
+                    SheetUtility.packCell(links[i + 1], links[i + 2]), isLinking);
+        }
+    }
+
+    /**
+     * Helper method that finds the slot of a sheet of the workbook, which formula programs use to refer to it.
+     * @param theName The name of the sheet.
+     * @return The slot of the sheet, or FormulaParser.OWN_SHEET if it is this sheet.
+     * @throws IllegalArgumentException When the workbook has no sheet of the given name.
+     */
+    private int getSheetSlot(final String theName) {
+        Spreadsheet sheet = myWorkbook != null ? myWorkbook.getSheet(theName) : null;
+        if (sheet == null) {
+            throw new IllegalArgumentException("Unknown Sheet");
+        }
+        if (sheet == this) {
+            return FormulaParser.OWN_SHEET;
+        }
+
+        int slot = myLinkedSheets.indexOf(sheet);
+        if (slot < 0) {
+            slot = myLinkedSheets.size();
+            myLinkedSheets.add(sheet);
+        }
+        return slot;
+    }
+
+    /**
+     * Helper method that records that one cell stopped using a template, and forgets the template once no cell
+     * uses it anymore.
+     * @param theTemplate The template.
+     */
+    private void releaseTemplate(final FormulaTemplate theTemplate) {
+        if (theTemplate.release()) {
+            myTemplates.remove(theTemplate.getKey());
+        }
     }
 
     /**
      * Sets the given cell reference to the given formula.
+     * Only the given cell and the cells that depend on it are re-evaluated.
+     * Within a transaction the formula is only staged, and nothing is re-evaluated until the commit.
      * @param theCell The reference to the cell.
      * @param theFormula The infix formula as a String.
+     * @throws IllegalStateException When the new formula creates a dependency loop.
      */
     public void changeCellFormulaAndRecalculate(final CellToken theCell, final String theFormula) {
         changeCellFormula(theCell, theFormula);
-        evaluateSheet();
-
+        if (myPendingEdits == null) {
+            recalculate();
+        }
     }
 
     /**
      * Resets an individual cell.
+     * The cells that depend on it are re-evaluated on the next recalculation.
+     * Within a transaction the cell is only staged to be cleared.
      * @param theCell The reference to a cell.
+     * @throws IllegalArgumentException When the given cell reference does not exist on the spreadsheet.
      */
     public void clearCell(final CellToken theCell) {
-        myCells[theCell.getRow()][theCell.getColumn()] = null;
+        // Check if the given cell token contains valid cell coordinates.
+        if (theCell.getRow() >= getNumRows() || theCell.getRow() < 0
+                || theCell.getColumn() >= getNumColumns() || theCell.getColumn() < 0) {
+            throw new IllegalArgumentException("Cell Does not exist.");
+        }
+
+        if (myPendingEdits != null) {
+            myPendingEdits.put(SheetUtility.packCell(theCell.getRow(), theCell.getColumn()), "");
+            return;
+        }
+
+        String oldFormula = getCellFormula(theCell);
+        putCell(theCell.getRow(), theCell.getColumn(), null);
+        myGraph.setPrecedents(SheetUtility.packCell(theCell.getRow(), theCell.getColumn()), myReferenceBuffer, 0);
+        if (!oldFormula.isEmpty()) {
+            myJournal.record(SheetUtility.packCell(theCell.getRow(), theCell.getColumn()), oldFormula, "");
+        }
+    }
+
+    /**
+     * Opens a transaction. Until it is committed or rolled back, changeCellFormula(...) and clearCell(...) only stage
+     * their edits, and the sheet keeps showing the formulas and values from before the transaction.
+     * @throws IllegalStateException When a transaction is already open.
+     */
+    public void beginTransaction() {
+        if (myPendingEdits != null) {
+            throw new IllegalStateException("Transaction already open");
+        }
+        myPendingEdits = new LinkedHashMap<>();
+    }
+
+    /**
+     * @return True if a transaction is open.
+     */
+    public boolean isInTransaction() {
+        return myPendingEdits != null;
+    }
+
+    /**
+     * Applies every edit of the open transaction at once, then recalculates the union of the affected cells once.
+     * Later edits of a cell replace earlier ones. The edits are checked for dependency loops as a whole, so they may
+     * be made in any order. If any formula is invalid, or the edits create a loop, none of them are applied.
+     * Either way, the transaction is closed.
+     * @throws IllegalArgumentException When a formula is not valid, the sheet is left unchanged.
+     * @throws IllegalStateException When no transaction is open, or the edits create a dependency loop,
+     * the sheet is left unchanged.
+     */
+    public void commitTransaction() {
+        if (myPendingEdits == null) {
+            throw new IllegalStateException("No open transaction");
+        }
+        Map<Long, String> edits = myPendingEdits;
+        myPendingEdits = null;
+
+        long[] cells = new long[edits.size()];
+        String[] oldFormulas = new String[cells.length];
+        String[] newFormulas = new String[cells.length];
+        int count = 0;
+        for (Map.Entry<Long, String> edit : edits.entrySet()) {
+            cells[count] = edit.getKey();
+            oldFormulas[count] = getCellFormula(SheetUtility.getPackedRow(cells[count]),
+                    SheetUtility.getPackedColumn(cells[count]));
+            newFormulas[count++] = edit.getValue();
+        }
+
+        applyEdits(edits);
+        myJournal.recordGroup(cells, oldFormulas, newFormulas, count);
+        recalculate();
+    }
+
+    /**
+     * Discards every edit of the open transaction. The sheet was never changed by them, so nothing is re-evaluated.
+     * @throws IllegalStateException When no transaction is open.
+     */
+    public void rollbackTransaction() {
+        if (myPendingEdits == null) {
+            throw new IllegalStateException("No open transaction");
+        }
+        myPendingEdits = null;
+    }
+
+    /**
+     * Reverts the newest edit, or the newest committed transaction, that has not been undone yet.
+     * Only the reverted cells and the cells downstream of them are re-evaluated on the next recalculation.
+     * @return True if an edit was undone, false if there was none.
+     * @throws IllegalArgumentException When an old formula is no longer valid, nothing is undone.
+     * @throws IllegalStateException When a transaction is open, or the old formulas now create a dependency loop
+     * through other sheets, nothing is undone.
+     */
+    public boolean undo() {
+        if (myPendingEdits != null) {
+            throw new IllegalStateException("Transaction open");
+        }
+
+        Map<Long, String> edits = myJournal.undo();
+        try {
+            applyEdits(edits);
+        } catch (IllegalArgumentException | IllegalStateException theError) {
+            //Step forward over the same group again, so that the history still matches the sheet.
+            myJournal.redo();
+            throw theError;
+        }
+        return !edits.isEmpty();
+    }
+
+    /**
+     * Makes the oldest undone edit, or undone transaction, again.
+     * Only the changed cells and the cells downstream of them are re-evaluated on the next recalculation.
+     * @return True if an edit was redone, false if there was none.
+     * @throws IllegalArgumentException When a new formula is no longer valid, nothing is redone.
+     * @throws IllegalStateException When a transaction is open, or the new formulas now create a dependency loop
+     * through other sheets, nothing is redone.
+     */
+    public boolean redo() {
+        if (myPendingEdits != null) {
+            throw new IllegalStateException("Transaction open");
+        }
+
+        Map<Long, String> edits = myJournal.redo();
+        try {
+            applyEdits(edits);
+        } catch (IllegalArgumentException | IllegalStateException theError) {
+            //Step back over the same group again, so that the history still matches the sheet.
+            myJournal.undo();
+            throw theError;
+        }
+        return !edits.isEmpty();
+    }
+
+    /**
+     * Puts back the formula that a cell had before an edit that turned out to be invalid, such as a formula that fails
+     * to evaluate. Unlike changeCellFormula(...), nothing is recorded: the edit is withdrawn from the undo history.
+     * @param theCell The reference to the cell.
+     * @param theFormula The formula that the cell had before the edit, empty for an empty cell.
+     * @throws IllegalArgumentException When the given cell reference does not exist on the spreadsheet.
+     * @throws IllegalStateException When a transaction is open, or the formula now creates a dependency loop.
+     */
+    public void revertCellFormula(final CellToken theCell, final String theFormula) {
+        // Check if the given cell token contains valid cell coordinates.
+        if (theCell.getRow() >= getNumRows() || theCell.getRow() < 0
+                || theCell.getColumn() >= getNumColumns() || theCell.getColumn() < 0) {
+            throw new IllegalArgumentException("Cell Does not exist.");
+        }
+        if (myPendingEdits != null) {
+            throw new IllegalStateException("Transaction open");
+        }
+
+        long packed = SheetUtility.packCell(theCell.getRow(), theCell.getColumn());
+        applyEdits(Map.of(packed, theFormula));
+        myJournal.withdraw(packed, theFormula);
+    }
+
+    /**
+     * @return True if there is an edit to undo.
+     */
+    public boolean canUndo() {
+        return myJournal.canUndo();
+    }
+
+    /**
+     * @return True if there is an undone edit to redo.
+     */
+    public boolean canRedo() {
+        return myJournal.canRedo();
     }
 
-    /** Resets all the cells within the spreadsheet. */
+    /**
+     * An accessor method for the # of cell edits that the undo history holds.
+     * @return The limit of the undo history.
+     */
+    public int getJournalLimit() {
+        return myJournal.getLimit();
+    }
+
+    /**
+     * Changes the # of cell edits that the undo history holds. The oldest edits that no longer fit are forgotten.
+     * Consecutive edits of the same cell only count once.
+     * @param theLimit The new limit, 0 turns the undo history off.
+     * @throws IllegalArgumentException When the limit is negative.
+     */
+    public void setJournalLimit(final int theLimit) {
+        if (theLimit < 0) {
+            throw new IllegalArgumentException("Negative journal limit");
+        }
+        myJournal.setLimit(theLimit);
+    }
+
+    /**
+     * Helper method that applies a group of edits with a single validation and a single loop check.
+     * @param theEdits The formulas by packed cell, an empty formula clears its cell.
+     * @throws IllegalArgumentException When a formula is not valid, the sheet is left unchanged.
+     * @throws IllegalStateException When the edits create a dependency loop, even one through other sheets, the sheet
+     * is left unchanged.
+     */
+    private void applyEdits(final Map<Long, String> theEdits) {
+        int editCount = theEdits.size();
+        long[] editedCells = new long[editCount];
+        FormulaTemplate[] newTemplates = new FormulaTemplate[editCount];
+
+        //Parse every formula before anything is touched.
+        int count = 0;
+        try {
+            for (Map.Entry<Long, String> edit : theEdits.entrySet()) {
+                long packed = edit.getKey();
+                editedCells[count] = packed;
+                if (!edit.getValue().isBlank()) {
+                    newTemplates[count] = acquireTemplate(edit.getValue(), SheetUtility.getPackedRow(packed),
+                            SheetUtility.getPackedColumn(packed));
+                }
+                count++;
+            }
+        } catch (IllegalArgumentException theError) {
+            for (int i = 0; i < count; i++) {
+                if (newTemplates[i] != null) {
+                    releaseTemplate(newTemplates[i]);
+                }
+            }
+            throw theError;
+        }
+
+        //Place the new cells, holding on to the templates and values of the old ones in case they have to be put back.
+        FormulaTemplate[] oldTemplates = new FormulaTemplate[editCount];
+        double[] oldValues = new double[editCount];
+        for (int i = 0; i < editCount; i++) {
+            int row = SheetUtility.getPackedRow(editedCells[i]);
+            int column = SheetUtility.getPackedColumn(editedCells[i]);
+            oldTemplates[i] = myCells.get(row, column);
+            oldValues[i] = myCells.getValue(row, column);
+            if (oldTemplates[i] != null) {
+                oldTemplates[i].acquire();
+            }
+            putCell(row, column, newTemplates[i]);
+        }
+
+        //The aggregates covering an edited cell gain or lose it as a member, so their references are refreshed too.
+        LongIntMap inBatch = new LongIntMap();
+        List<Long> aggregates = new ArrayList<>();
+        for (long packed : editedCells) {
+            inBatch.put(packed, 0);
+        }
+        for (long packed : editedCells) {
+            AggregateIndex index = myIndexes[SheetUtility.getPackedColumn(packed)];
+            if (index != null) {
+                index.forEachWatcher(SheetUtility.getPackedRow(packed), theAggregate -> {
+                    if (inBatch.get(theAggregate) == LongIntMap.MISSING) {
+                        inBatch.put(theAggregate, 0);
+                        aggregates.add(theAggregate);
+                    }
+                });
+            }
+        }
+
+        int batchCount = editCount + aggregates.size();
+        long[] batch = Arrays.copyOf(editedCells, batchCount);
+        for (int i = 0; i < aggregates.size(); i++) {
+            batch[editCount + i] = aggregates.get(i);
+        }
+
+        try {
+            setPrecedents(batch, batchCount);
+        } catch (IllegalStateException theError) {
+            restoreCells(editedCells, oldTemplates, oldValues);
+            throw theError;
+        }
+
+        //A loop through other sheets only shows once the cells are in place, so it is undone afterwards.
+        if (myWorkbook != null) {
+            try {
+                myWorkbook.checkLoops(this, editedCells);
+            } catch (IllegalStateException theError) {
+                restoreCells(editedCells, oldTemplates, oldValues);
+                setPrecedents(batch, batchCount);
+                throw theError;
+            }
+        }
+
+        for (FormulaTemplate oldTemplate : oldTemplates) {
+            if (oldTemplate != null) {
+                releaseTemplate(oldTemplate);
+            }
+        }
+    }
+
+    /**
+     * Helper method that replaces the precedents of a batch of cells in the graph with those of their current formulas.
+     * @param theBatch The packed coordinates of the cells.
+     * @param theCount The # of valid entries in theBatch.
+     * @throws IllegalStateException When the formulas create a dependency loop, the graph is left unchanged.
+     */
+    private void setPrecedents(final long[] theBatch, final int theCount) {
+        long[][] precedents = new long[theCount][];
+        int[] precedentCounts = new int[theCount];
+        for (int i = 0; i < theCount; i++) {
+            int row = SheetUtility.getPackedRow(theBatch[i]);
+            int column = SheetUtility.getPackedColumn(theBatch[i]);
+            FormulaTemplate template = myCells.get(row, column);
+            precedentCounts[i] = template != null ? collectReferences(template, row, column) : 0;
+            precedents[i] = Arrays.copyOf(myReferenceBuffer, precedentCounts[i]);
+        }
+        myGraph.setPrecedents(theBatch, theCount, precedents, precedentCounts);
+    }
+
+    /**
+     * Helper method that puts the held templates back into the edited cells, along with their values.
+     * @param theCells The packed coordinates of the edited cells.
+     * @param theTemplates The held templates of the old cells, null for the cells that were empty.
+     * @param theValues The values of the old cells.
+     */
+    private void restoreCells(final long[] theCells, final FormulaTemplate[] theTemplates, final double[] theValues) {
+        for (int i = theCells.length - 1; i >= 0; i--) {
+            int row = SheetUtility.getPackedRow(theCells[i]);
+            int column = SheetUtility.getPackedColumn(theCells[i]);
+            putCell(row, column, theTemplates[i]);
+            if (theTemplates[i] != null) {
+                myCells.setValue(row, column, theValues[i]);
+            }
+        }
+    }
+
+    /** Resets all the cells within the spreadsheet, and forgets the undo history. */
     public void clear() {
-        myCells = new Cell[myNumRows][myNumColumns];
+        //Every filled cell is about to change.
+        long[] clearedCells = new long[myListeners.isEmpty() ? 0 : myCells.size()];
+        int[] count = new int[1];
+        if (clearedCells.length > 0) {
+            myCells.forEach((theRow, theColumn, theTemplate) ->
+                    clearedCells[count[0]++] = SheetUtility.packCell(theRow, theColumn));
+        }
+
+        if (myWorkbook != null) {
+            myCells.forEach((theRow, theColumn, theTemplate) -> linkSheets(theTemplate, theRow, theColumn, false));
+        }
+        myCells.clear();
+        myTemplates.clear();
+        myGraph.clear();
+        myIndexes = new AggregateIndex[myNumColumns];
+        myActiveIndexes.clear();
+        myJournal.clear();
+
+        if (count[0] > 0) {
+            fireCellsChanged(new ChangeSet(clearedCells, count[0]));
+        }
     }
 
     /**
@@ -201,7 +937,7 @@ public class Spreadsheet {
 
     /**
      * An override of the toString() method.
-     * Creates a multiline String that holds the dimensions and data from every non-null cell.
+     * Creates a multiline String that holds the dimensions and data from every filled cell.
      * Format:
      * [rows] [columns]
      * [Cell Address] [Cell Formula]
@@ -216,173 +952,542 @@ public class Spreadsheet {
                 .append(myNumColumns)
                 .append("\n");
 
-        for (int y = 0; y < myNumRows; y++) {
-            for (int x = 0; x < myNumColumns; x++) {
-                if (myCells[y][x] != null) {
-                    result.append(SheetUtility.getCellAddress(new CellToken(y, x)))
-                            .append(" ")
-                            .append(myCells[y][x].getFormula())
-                            .append("\n");
-                }
-            }
-        }
+        myCells.forEach((theRow, theColumn, theTemplate) ->
+                result.append(SheetUtility.getCellAddress(new CellToken(theRow, theColumn)))
+                        .append(" ")
+                        .append(theTemplate.getFormula(theRow, theColumn))
+                        .append("\n"));
 
         return result.toString();
     }
 
     /**
-     * Preforms a topological sort on the cells of the Spreadsheet, and returns the result as a Queue.
-     * @return A Queue of CellTokens in proper evaluation order.
+     * Returns the values of every filled cell, in the same layout as toString(), but with each formula
+     * replaced by its value:
+     * [rows] [columns]
+     * [Cell Address] [Cell Value]
+     * ...
+     * @return A String representation of the values of the spreadsheet.
+     */
+    public String valuesToString() {
+        StringBuilder result = new StringBuilder();
+        result.append(myNumRows)
+                .append(" ")
+                .append(myNumColumns)
+                .append("\n");
+
+        myCells.forEach((theRow, theColumn, theTemplate) ->
+                result.append(SheetUtility.getCellAddress(new CellToken(theRow, theColumn)))
+                        .append(" ")
+                        .append(myCells.getDisplay(theRow, theColumn, myDecimalPrecision))
+                        .append("\n"));
+
+        return result.toString();
+    }
+
+    /**
+     * Preforms a topological sort on every filled cell of the Spreadsheet.
+     * @return The packed coordinates (see SheetUtility.packCell) of the cells in proper evaluation order.
      * @throws IllegalStateException When a dependency loop is found.
      */
-    public Queue<CellToken> topologicalSort(final Map<CellToken, Set<CellToken>> theAdjacencyMap) {
-        Queue<CellToken> evalQueue = new LinkedList<>();
-        Map<CellToken, Integer> indegree = new HashMap<>();
+    public long[] topologicalSort() {
+        long[] filledCells = new long[myCells.size()];
+        int[] count = new int[1];
+        myCells.forEach((theRow, theColumn, theTemplate) ->
+                filledCells[count[0]++] = SheetUtility.packCell(theRow, theColumn));
 
-        // Calculate indegree for each node and initialize the adjacencyMap
-        for (CellToken currentCell : theAdjacencyMap.keySet()) {
-            indegree.put(currentCell, 0);
+        return myGraph.sort(filledCells, count[0]).getCells();
+    }
+
+    /**
+     * Re-evaluates the cells that changed since the last recalculation, and every cell downstream of them.
+     * @throws IllegalStateException When a dependency loop is found.
+     */
+    public void recalculate() {
+        recalculate(null);
+    }
+
+    /**
+     * Re-evaluates the cells that changed since the last recalculation, and every cell downstream of them.
+     * The cells are evaluated in batches, and the listeners are told about the changes of each batch as soon as
+     * it is done. The sheet must not be changed by other threads while this runs.
+     * @param theMonitor The monitor that is told about the progress and polled for cancellation, or null.
+     * @return True if every cell was evaluated, false if the recalculation was cancelled.
+     * @throws IllegalStateException When a dependency loop is found.
+     */
+    public boolean recalculate(final RecalculationMonitor theMonitor) {
+        if (!myGraph.hasDirtyCells()) {
+            return true;
         }
-        for (Set<CellToken> currentCell : theAdjacencyMap.values()) {
-            for (CellToken neighbor : currentCell) {
-                indegree.put(neighbor, indegree.getOrDefault(neighbor, 0) + 1);
-            }
+
+        RecalculationEvent event = new RecalculationEvent();
+        event.begin();
+        long recalculationStart = System.nanoTime();
+
+        //Cells within a level never depend on each other, so each level can be evaluated in any order.
+        EvaluationOrder order = myGraph.sortDirty();
+        long[] cells = order.getCells();
+        long sortNanos = System.nanoTime() - recalculationStart;
+        flushIndexes();
+        if (theMonitor != null) {
+            theMonitor.progressed(0, cells.length);
         }
 
-        // Add nodes with indegree 0 to queue
-        Queue<CellToken> tempQueue = new LinkedList<>();
-        for (CellToken currentCell : indegree.keySet()) {
-            if (indegree.get(currentCell) == 0) {
-                tempQueue.add(currentCell);
+        int batchStart = 0;
+        for (int level = 0; level < order.getLevelCount(); level++) {
+            int start = order.getLevelStart(level);
+            int end = order.getLevelEnd(level);
+
+            //Small levels share a batch, large levels are split across several.
+            while (start < end) {
+                int sliceEnd = Math.min(end, batchStart + RECALCULATION_BATCH_SIZE);
+                try {
+                    if (myRecalculationPool != null && sliceEnd - start >= PARALLEL_THRESHOLD) {
+                        myRecalculationPool.invoke(new LevelTask(cells, start, sliceEnd));
+                    } else {
+                        evaluateCells(cells, start, sliceEnd, myOperandStack);
+                    }
+                    updateIndexes(cells, start, sliceEnd);
+                } catch (final RuntimeException theError) {
+                    //The order was taken out of the graph, so put back what wasn't evaluated or it is never retried.
+                    for (int i = start; i < cells.length; i++) {
+                        myGraph.markDirty(cells[i]);
+                    }
+                    throw theError;
+                }
+                start = sliceEnd;
+
+                if (sliceEnd - batchStart == RECALCULATION_BATCH_SIZE || sliceEnd == cells.length) {
+                    publishChanges(cells, batchStart, sliceEnd);
+                    batchStart = sliceEnd;
+
+                    if (theMonitor != null) {
+                        theMonitor.progressed(sliceEnd, cells.length);
+                        if (sliceEnd < cells.length && theMonitor.isCancelled()) {
+                            //Keep the rest of the order for the next recalculation, their dependents follow anyway.
+                            for (int i = sliceEnd; i < cells.length; i++) {
+                                myGraph.markDirty(cells[i]);
+                            }
+                            recordRecalculation(event, recalculationStart, sortNanos, order, sliceEnd);
+                            return false;
+                        }
+                    }
+                }
             }
         }
 
-        // Perform topological sort
-        while (!tempQueue.isEmpty()) {
-            CellToken currentCell = tempQueue.poll();
-            evalQueue.add(currentCell);
-            for (CellToken neighbor : theAdjacencyMap.getOrDefault(currentCell, new HashSet<>())) {
-                indegree.put(neighbor, indegree.get(neighbor) - 1);
-                if (indegree.get(neighbor) == 0) {
-                    tempQueue.add(neighbor);
-                }
+        recordRecalculation(event, recalculationStart, sortNanos, order, cells.length);
+        return true;
+    }
+
+    /**
+     * Helper method that records a finished or cancelled recalculation in the metrics and the flight recorder.
+     * @param theEvent The flight recorder event, begun when the recalculation started.
+     * @param theStart The time the recalculation started, from System.nanoTime().
+     * @param theSortNanos The time spent sorting the cells.
+     * @param theOrder The evaluation order.
+     * @param theCellsEvaluated The # of cells that were evaluated.
+     */
+    private void recordRecalculation(final RecalculationEvent theEvent, final long theStart, final long theSortNanos,
+                                     final EvaluationOrder theOrder, final int theCellsEvaluated) {
+        myMetrics.recordRecalculation(theSortNanos, System.nanoTime() - theStart - theSortNanos,
+                theCellsEvaluated, theOrder.getLevelCount());
+
+        theEvent.end();
+        if (theEvent.shouldCommit()) {
+            theEvent.myCells = theOrder.getCells().length;
+            theEvent.myCellsEvaluated = theCellsEvaluated;
+            theEvent.myLongestChain = theOrder.getLevelCount();
+            theEvent.mySortTime = theSortNanos;
+            theEvent.myCancelled = theCellsEvaluated < theOrder.getCells().length;
+            theEvent.commit();
+        }
+    }
+
+    /**
+     * An accessor method for the counters and timers of the sheet. The returned object stays valid for the life
+     * of the sheet, and can be registered with a JMX server as an MXBean.
+     * @return The metrics of the sheet.
+     */
+    public SheetMetrics getMetrics() {
+        return myMetrics;
+    }
+
+    /**
+     * Lets an object be told which cells change after each recalculation.
+     * @param theListener The listener to be added.
+     */
+    public void addSheetListener(final SheetListener theListener) {
+        myListeners.add(theListener);
+    }
+
+    /**
+     * Stops telling the given object about changed cells.
+     * @param theListener The listener to be removed.
+     */
+    public void removeSheetListener(final SheetListener theListener) {
+        myListeners.remove(theListener);
+    }
+
+    /**
+     * Helper method that collects the cells of a batch whose value or formula changed, and tells the listeners
+     * about them. Done serially after the evaluation, so that parallel levels never share a buffer.
+     * @param theCells The packed coordinates of the cells.
+     * @param theStart The index of the first re-evaluated cell.
+     * @param theEnd The index just after the last re-evaluated cell.
+     */
+    private void publishChanges(final long[] theCells, final int theStart, final int theEnd) {
+        long[] changedCells = new long[myListeners.isEmpty() ? 0 : theEnd - theStart];
+        int count = 0;
+
+        for (int i = theStart; i < theEnd; i++) {
+            long packed = theCells[i];
+            //An empty cell within the order is a cell that was just cleared.
+            boolean isChanged = myCells.takeChanged(SheetUtility.getPackedRow(packed),
+                    SheetUtility.getPackedColumn(packed));
+            if (isChanged && changedCells.length > 0) {
+                changedCells[count++] = packed;
             }
         }
 
-        // Check for cycle
-        if (evalQueue.size() < theAdjacencyMap.size()) {
-            throw new IllegalStateException("There is a cycle");
+        if (count > 0) {
+            fireCellsChanged(new ChangeSet(changedCells, count));
         }
+    }
 
-        return evalQueue;
+    /**
+     * Helper method that tells every listener about the given changes.
+     * @param theChanges The changed cells.
+     */
+    private void fireCellsChanged(final ChangeSet theChanges) {
+        for (SheetListener listener : List.copyOf(myListeners)) {
+            listener.cellsChanged(theChanges);
+        }
     }
 
     /**
-     * Finds the dependencies of each cell.
-     * @return A map of cell dependencies.
+     * Lets you evaluate large recalculations on multiple threads.
+     * Levels of the evaluation order that hold enough independent cells are split into tasks on the given pool,
+     * while the levels themselves are still evaluated one after another. The results are identical to a serial
+     * recalculation, since every cell only reads cells from earlier levels.
+     * @param thePool The pool used for recalculation, or null to recalculate serially on the calling thread.
      */
-    private Map<CellToken, Set<CellToken>> getAdjacencyMap() {
-        Map<CellToken, Set<CellToken>> result = new HashMap<>();
+    public void setRecalculationPool(final ForkJoinPool thePool) {
+        myRecalculationPool = thePool;
+    }
 
-        //Initialize the adjacencyMap
-        for (int y = 0; y < myNumRows; y++) {
-            for (int x = 0; x < myNumColumns; x++) {
-                result.put(new CellToken(y, x), new HashSet<>());
+    /**
+     * Helper method that brings the aggregate indexes up to date with a range of freshly evaluated cells.
+     * Done serially between slices, so that the cells of later levels see the new values.
+     * @param theCells The packed coordinates of the cells.
+     * @param theStart The index of the first evaluated cell.
+     * @param theEnd The index just after the last evaluated cell.
+     */
+    private void updateIndexes(final long[] theCells, final int theStart, final int theEnd) {
+        if (myActiveIndexes.isEmpty()) {
+            return;
+        }
+
+        for (int i = theStart; i < theEnd; i++) {
+            AggregateIndex index = myIndexes[SheetUtility.getPackedColumn(theCells[i])];
+            if (index != null) {
+                index.markChanged(SheetUtility.getPackedRow(theCells[i]));
             }
         }
+        flushIndexes();
+    }
 
-        //Fill the adjacencyMap
-        for (int y = 0; y < myNumRows; y++) {
-            for (int x = 0; x < myNumColumns; x++) {
-                if (myCells[y][x] != null) {
-                    HashSet<CellToken> dependencies = new HashSet<>();
-                    findDependencies(myCells[y][x].getExpressionTree().getRoot(), dependencies);
-                    CellToken cell = new CellToken(y, x);
+    /** Helper method that recomputes the changed blocks of every aggregate index. */
+    private void flushIndexes() {
+        for (AggregateIndex index : myActiveIndexes) {
+            index.flush();
+        }
+    }
 
-                    for (CellToken neighbor : dependencies) {
-                        result.get(neighbor).add(cell);
-                    }
+    /**
+     * Helper method that evaluates a range of cells from a single level of an evaluation order.
+     * Cells that hold the same formula in consecutive rows of a column are evaluated together as one run, see
+     * FormulaProgram.evaluateRun(...), and the rest are evaluated one at a time.
+     * @param theCells The packed coordinates of the cells.
+     * @param theStart The index of the first cell to be evaluated.
+     * @param theEnd The index just after the last cell to be evaluated.
+     * @param theStack The operand stack used by the formula programs.
+     */
+    private void evaluateCells(final long[] theCells, final int theStart, final int theEnd, final double[] theStack) {
+        if (theEnd - theStart < MINIMUM_RUN_LENGTH || !hasFilledDownCells(theCells, theStart, theEnd)) {
+            for (int i = theStart; i < theEnd; i++) {
+                evaluateCell(SheetUtility.getPackedRow(theCells[i]), SheetUtility.getPackedColumn(theCells[i]), theStack);
+            }
+            return;
+        }
+
+        //The cells all belong to one level, so they may be reordered column by column to line up filled down formulas.
+        sortByColumn(theCells, theStart, theEnd);
+
+        double[][] lanes = null;
+        int i = theStart;
+        while (i < theEnd) {
+            int row = SheetUtility.getPackedRow(theCells[i]);
+            int column = SheetUtility.getPackedColumn(theCells[i]);
+            FormulaTemplate template = myCells.get(row, column);
+
+            int runEnd = i + 1;
+            while (runEnd < theEnd && runEnd - i < MAXIMUM_RUN_LENGTH
+                    && theCells[runEnd] == SheetUtility.packCell(row + runEnd - i, column)
+                    && myCells.get(row + runEnd - i, column) == template) {
+                runEnd++;
+            }
+
+            if (template != null && runEnd - i >= MINIMUM_RUN_LENGTH) {
+                if (lanes == null) {
+                    lanes = new double[theStack.length][MAXIMUM_RUN_LENGTH];
+                }
+                double[] values = template.getProgram().evaluateRun(this, lanes, row, column, runEnd - i);
+                if (values != null) {
+                    myCells.setValues(column, row, runEnd - i, values);
+                    i = runEnd;
                 }
             }
+            for (; i < runEnd; i++) {
+                evaluateCell(SheetUtility.getPackedRow(theCells[i]), SheetUtility.getPackedColumn(theCells[i]), theStack);
+            }
         }
+    }
 
-        return result;
+    /**
+     * Helper method that decides whether a range of cells is worth sorting into runs, which is when at least a
+     * quarter of them hold the same formula as the cell below them.
+     * @param theCells The packed coordinates of the cells.
+     * @param theStart The index of the first cell.
+     * @param theEnd The index just after the last cell.
+     * @return True if the range is likely to hold runs of filled down formulas.
+     */
+    private boolean hasFilledDownCells(final long[] theCells, final int theStart, final int theEnd) {
+        int count = 0;
+        for (int i = theStart; i < theEnd; i++) {
+            int row = SheetUtility.getPackedRow(theCells[i]);
+            int column = SheetUtility.getPackedColumn(theCells[i]);
+            FormulaTemplate template = myCells.get(row, column);
+            if (template != null && row + 1 < myNumRows && myCells.get(row + 1, column) == template) {
+                count++;
+            }
+        }
+        return count * 4 >= theEnd - theStart;
     }
 
     /**
-     * Helper method that recursively traverses an expression tree to look for cell dependencies.
-     * @param root The root of the expression tree
-     * @param theDependencies The set that the dependencies should be placed in.
+     * Helper method that sorts a range of packed cells by column, then by row.
+     * @param theCells The packed coordinates of the cells.
+     * @param theStart The index of the first cell to be sorted.
+     * @param theEnd The index just after the last cell to be sorted.
      */
-    private void findDependencies(final ExpressionTreeNode root, Set<CellToken> theDependencies) {
-        if (root.getToken() instanceof CellToken) {
-            theDependencies.add((CellToken) root.getToken());
-        } else if (root.getToken() instanceof OperatorToken) {
-            findDependencies(root.getLeft(), theDependencies);
-            findDependencies(root.getRight(), theDependencies);
+    private static void sortByColumn(final long[] theCells, final int theStart, final int theEnd) {
+        //Swapping the halves of a packed cell puts the column above the row.
+        for (int i = theStart; i < theEnd; i++) {
+            theCells[i] = Long.rotateLeft(theCells[i], 32);
+        }
+        Arrays.sort(theCells, theStart, theEnd);
+        for (int i = theStart; i < theEnd; i++) {
+            theCells[i] = Long.rotateLeft(theCells[i], 32);
         }
     }
 
     /**
-     * Calls getEvalQueue() and uses the resulting Queue to evaluate every cell in proper order.
+     * Marks every filled cell as changed and re-evaluates the entire sheet in proper order.
+     * Only the populated tiles of the sheet are visited.
+     * @throws IllegalStateException When a dependency loop is found.
      */
     public void evaluateSheet() {
-        Queue<CellToken> evalQueue = topologicalSort(getAdjacencyMap());
+        myCells.forEach((theRow, theColumn, theTemplate) -> myGraph.markDirty(SheetUtility.packCell(theRow, theColumn)));
 
-        while(!evalQueue.isEmpty()) {
-            evaluateCell(evalQueue.poll());
-        }
+        recalculate();
     }
 
     /**
-     * Changes the value field of a cell based on the result of evaluating its expressionTree.
-     * @param theCell The cell to be evaluated.
-     * @throws IllegalArgumentException When the given cell reference does not exist on the spreadsheet.
+     * Changes the value field of a cell based on the result of evaluating its formula program.
+     * @param theRow The row of the cell to be evaluated.
+     * @param theColumn The column of the cell to be evaluated.
+     * @param theStack The operand stack used by the formula program.
      */
-    private void evaluateCell(final CellToken theCell) {
-        // Check if the given cell token contains valid cell coordinates.
-        if (theCell.getRow() > getNumRows() || theCell.getRow() < 0
-                || theCell.getColumn() > getNumColumns() || theCell.getColumn() < 0) {
-            throw new IllegalArgumentException("Cell Does not exist.");
+    private void evaluateCell(final int theRow, final int theColumn, final double[] theStack) {
+        FormulaTemplate template = myCells.get(theRow, theColumn);
+        if (template == null) {
+            return;
         }
 
-        if (myCells[theCell.getRow()][theCell.getColumn()] == null) {
-            return;
+        myCells.setValue(theRow, theColumn, template.getProgram().evaluate(this, theStack, theRow, theColumn));
+    }
+
+    /**
+     * An accessor method used by formula programs to read the value of a referenced cell.
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     * @return The value of the cell, returns 0 if the cell is empty.
+     * @throws IllegalArgumentException When the given coordinates do not exist on the spreadsheet.
+     */
+    double getValue(final int theRow, final int theColumn) {
+        // Check if the given cell coordinates are valid.
+        if (theRow >= myNumRows || theRow < 0 || theColumn >= myNumColumns || theColumn < 0) {
+            throw new IllegalArgumentException("Bad Cell");
         }
 
-        //Get the expression tree from the cell and put its evaluated value back into the cell.
-        Cell cell = myCells[theCell.getRow()][theCell.getColumn()];
-        ExpressionTree formulaTree = cell.getExpressionTree();
+        return myCells.getValue(theRow, theColumn);
+    }
 
-        cell.setValue(evaluateTree(formulaTree.getRoot()));
+    /**
+     * An accessor method used by formula programs to read the value of a cell of another sheet.
+     * @param theSheet The slot of the sheet, see getLinkedSheet(...).
+     * @param theRow The row of the cell.
+     * @param theColumn The column of the cell.
+     * @return The value of the cell, returns 0 if the cell is empty.
+     * @throws IllegalArgumentException When the given coordinates do not exist on that sheet.
+     */
+    double getExternalValue(final int theSheet, final int theRow, final int theColumn) {
+        return myLinkedSheets.get(theSheet).getValue(theRow, theColumn);
     }
 
     /**
-     * Recursively traverses an expression tree and evaluates it.
-     * this evaluation must be done in the Spreadsheet class, since we need access to the values of other cells.
-     * @param theRoot The root node of the expression tree.
-     * @return The value of the expression tree.
+     * An accessor method used by formula programs to read the values of a run of rows within one column of
+     * another sheet. The run must lie within that sheet.
+     * @param theSheet The slot of the sheet, see getLinkedSheet(...).
+     * @param theTopRow The first row of the run.
+     * @param theColumn The column of the run.
+     * @param theCount The # of rows in the run.
+     * @param theTarget The array that the values are copied to, 0 for the empty cells.
      */
-    private double evaluateTree(final ExpressionTreeNode theRoot) {
-        //First 2 if-statements are base cases.
-        //If the node is a cell or a literal, then it must be a leaf.
-        if (theRoot.getToken() instanceof CellToken) {
-            return getCellValue((CellToken) theRoot.getToken());
+    void getExternalValues(final int theSheet, final int theTopRow, final int theColumn, final int theCount,
+                           final double[] theTarget) {
+        myLinkedSheets.get(theSheet).getValues(theTopRow, theColumn, theCount, theTarget);
+    }
 
-        } else if (theRoot.getToken() instanceof LiteralToken) {
-            return ((LiteralToken) theRoot.getToken()).getLiteral();
+    /**
+     * @param theSheet The slot of another sheet of the workbook, as used by the formula programs of this sheet.
+     * @return The sheet.
+     */
+    Spreadsheet getLinkedSheet(final int theSheet) {
+        return myLinkedSheets.get(theSheet);
+    }
 
-        } else { //apply the operator to the values of its subtrees
-            switch (((OperatorToken) theRoot.getToken()).getOperator()) {
-                case OperatorToken.PLUS -> { return evaluateTree(theRoot.getLeft()) + evaluateTree(theRoot.getRight()); }
-                case OperatorToken.MINUS -> { return evaluateTree(theRoot.getLeft()) - evaluateTree(theRoot.getRight()); }
-                case OperatorToken.MULTI -> { return evaluateTree(theRoot.getLeft()) * evaluateTree(theRoot.getRight()); }
-                case OperatorToken.DIV -> { return evaluateTree(theRoot.getLeft()) / evaluateTree(theRoot.getRight()); }
-                case OperatorToken.EXP -> { return Math.pow(evaluateTree(theRoot.getLeft()), evaluateTree(theRoot.getRight())); }
-            }
+    /**
+     * @return The workbook that the sheet belongs to, or null if it stands alone.
+     */
+    public Workbook getWorkbook() {
+        return myWorkbook;
+    }
+
+    /**
+     * Adds the sheet to a workbook or takes it out of one. Only the workbook calls this.
+     * @param theWorkbook The workbook, or null.
+     */
+    void setWorkbook(final Workbook theWorkbook) {
+        myWorkbook = theWorkbook;
+    }
+
+    /**
+     * Marks a cell for the next recalculation, used by the workbook when a cell of another sheet that it refers to
+     * has changed.
+     * @param thePackedCell The packed coordinates of the cell.
+     */
+    void markDirty(final long thePackedCell) {
+        myGraph.markDirty(thePackedCell);
+    }
+
+    /**
+     * @return True if any cell has changed since the last recalculation, used by the workbook to tell when sheets
+     * that refer to each other have settled.
+     */
+    boolean hasDirtyCells() {
+        return myGraph.hasDirtyCells();
+    }
+
+    /**
+     * Calls an action for every cell of the sheet that references the given cell directly, used by the workbook to
+     * follow references across sheets.
+     * @param thePackedCell The packed coordinates of the cell.
+     * @param theAction The action, given the packed coordinates of each dependent.
+     */
+    void forEachDependent(final long thePackedCell, final LongConsumer theAction) {
+        myGraph.forEachDependent(thePackedCell, theAction);
+    }
+
+    /**
+     * An accessor method used by formula programs to read the values of a run of rows within one column.
+     * The run must lie within the spreadsheet.
+     * @param theTopRow The first row of the run.
+     * @param theColumn The column of the run.
+     * @param theCount The # of rows in the run.
+     * @param theTarget The array that the values are copied to, 0 for the empty cells.
+     */
+    void getValues(final int theTopRow, final int theColumn, final int theCount, final double[] theTarget) {
+        myCells.getValues(theColumn, theTopRow, theCount, theTarget);
+    }
+
+    /**
+     * An accessor method used by formula programs to aggregate the filled cells of a range.
+     * An empty range aggregates to 0.
+     * @param theFunction The function, one of the codes defined in AggregateToken.
+     * @param theTopRow The first row of the range.
+     * @param theLeftColumn The first column of the range.
+     * @param theBottomRow The last row of the range.
+     * @param theRightColumn The last column of the range.
+     * @return The aggregate of the range.
+     * @throws IllegalArgumentException When the range does not lie within the spreadsheet.
+     */
+    double getAggregate(final int theFunction, final int theTopRow, final int theLeftColumn,
+                        final int theBottomRow, final int theRightColumn) {
+        if (theTopRow < 0 || theLeftColumn < 0 || theBottomRow >= myNumRows || theRightColumn >= myNumColumns) {
+            throw new IllegalArgumentException("Bad Cell");
+        }
+
+        double[] totals = {0, 0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int column = theLeftColumn; column <= theRightColumn; column++) {
+            myIndexes[column].accumulate(theTopRow, theBottomRow, totals);
         }
 
-        //Should not reach this point
-        throw new IllegalArgumentException("Bad Expression Tree");
+        if (totals[AggregateIndex.COUNT] == 0) {
+            return 0;
+        }
+        return switch (theFunction) {
+            case AggregateToken.SUM -> totals[AggregateIndex.SUM];
+            case AggregateToken.AVG -> totals[AggregateIndex.SUM] / totals[AggregateIndex.COUNT];
+            case AggregateToken.MIN -> totals[AggregateIndex.MIN];
+            case AggregateToken.MAX -> totals[AggregateIndex.MAX];
+            default -> throw new IllegalStateException("Bad Function");
+        };
+    }
+
+    /** A task that evaluates part of a single level, splitting itself until the parts are small enough. */
+    private class LevelTask extends RecursiveAction {
+        /** The packed coordinates of the cells. */
+        private final long[] myTaskCells;
+
+        /** The index of the first cell to be evaluated. */
+        private final int myStart;
+
+        /** The index just after the last cell to be evaluated. */
+        private final int myEnd;
+
+        /**
+         * The lone constructor for a LevelTask.
+         * @param theCells The packed coordinates of the cells.
+         * @param theStart The index of the first cell to be evaluated.
+         * @param theEnd The index just after the last cell to be evaluated.
+         */
+        LevelTask(final long[] theCells, final int theStart, final int theEnd) {
+            myTaskCells = theCells;
+            myStart = theStart;
+            myEnd = theEnd;
+        }
+
+        @Override
+        protected void compute() {
+            if (myEnd - myStart <= PARALLEL_CHUNK_SIZE) {
+                //Each task needs its own operand stack.
+                evaluateCells(myTaskCells, myStart, myEnd, new double[myOperandStack.length]);
+            } else {
+                int middle = (myStart + myEnd) >>> 1;
+                invokeAll(new LevelTask(myTaskCells, myStart, middle), new LevelTask(myTaskCells, middle, myEnd));
+            }
+        }
     }
 }
@@ -0,0 +1,560 @@
+package Model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A workbook of named spreadsheets, whose formulas can refer to the cells of the other sheets, as in Sheet2!A1.
+ * Each sheet keeps the dependency graph between its own cells, while the workbook keeps the graph between sheets:
+ * which cells of other sheets refer to each cell, and how many references each sheet makes to every other sheet.
+ * Sheets may refer to each other in a loop as long as no cell ends up depending on itself, which is checked cell by
+ * cell when a formula is set. Sheets that refer to each other, directly or through other sheets, form a component.
+ * A recalculation goes through the components in waves, where every component of a wave only refers to components of
+ * earlier waves. The components of a wave share nothing, so they are recalculated concurrently when a pool is given.
+ * Whenever a cell changes, the cells of other sheets that refer to it are marked for recalculation.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+public class Workbook {
+    /** The sheets, by name in the order they were added. */
+    private final Map<String, Spreadsheet> mySheets;
+
+    /** The listener that the workbook added to each sheet. */
+    private final Map<Spreadsheet, SheetListener> mySheetListeners;
+
+    /** For each sheet that other sheets refer to, the cells of other sheets that refer to each of its cells. */
+    private final Map<Spreadsheet, Map<Long, List<ExternalCell>>> myDependents;
+
+    /** For each sheet that refers to other sheets, the # of references it makes to each of them. */
+    private final Map<Spreadsheet, Map<Spreadsheet, Integer>> myPrecedentSheets;
+
+    /** For each sheet, its changes that still have to be passed on to the cells of other sheets. */
+    private final Map<Spreadsheet, Queue<ChangeSet>> myChanges;
+
+    /** The cells marked by the running wave that belong to later waves, and are only marked once the wave is done. */
+    private final Queue<ExternalCell> myDeferredCells;
+
+    /** The pool that the sheets of a wave are recalculated on, or null if recalculation is serial. */
+    private ForkJoinPool myRecalculationPool;
+
+    /** Creates an empty workbook. */
+    public Workbook() {
+        mySheets = new LinkedHashMap<>();
+        mySheetListeners = new HashMap<>();
+        myDependents = new HashMap<>();
+        myPrecedentSheets = new HashMap<>();
+        myChanges = new HashMap<>();
+        myDeferredCells = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Creates an empty sheet and adds it to the workbook.
+     * @param theName The name of the sheet, a letter followed by letters and digits.
+     * @param theNumRows The # of rows the sheet will have.
+     * @param theNumColumns The # of columns the sheet will have.
+     * @return The new sheet.
+     * @throws IllegalArgumentException When the name is not valid or already taken, or the sheet is too small.
+     */
+    public Spreadsheet addSheet(final String theName, final int theNumRows, final int theNumColumns) {
+        Spreadsheet sheet = new Spreadsheet(theNumRows, theNumColumns);
+        addSheet(theName, sheet);
+        return sheet;
+    }
+
+    /**
+     * Adds an existing sheet to the workbook, so that its formulas can refer to the other sheets and theirs to it.
+     * @param theName The name of the sheet, a letter followed by letters and digits.
+     * @param theSheet The sheet.
+     * @throws IllegalArgumentException When the name is not valid or already taken.
+     * @throws IllegalStateException When the sheet already belongs to a workbook.
+     */
+    public void addSheet(final String theName, final Spreadsheet theSheet) {
+        if (!SheetUtility.isValidSheetName(theName)) {
+            throw new IllegalArgumentException("Invalid Sheet Name");
+        }
+        if (mySheets.containsKey(theName)) {
+            throw new IllegalArgumentException("Sheet Name Taken");
+        }
+        if (theSheet.getWorkbook() != null) {
+            throw new IllegalStateException("Sheet already in a workbook");
+        }
+
+        //Changes are only worth keeping for the sheets that other sheets refer to.
+        Queue<ChangeSet> changes = new ConcurrentLinkedQueue<>();
+        SheetListener listener = theChanges -> {
+            if (myDependents.containsKey(theSheet)) {
+                changes.add(theChanges);
+            }
+        };
+        mySheets.put(theName, theSheet);
+        mySheetListeners.put(theSheet, listener);
+        myChanges.put(theSheet, changes);
+        theSheet.setWorkbook(this);
+        theSheet.addSheetListener(listener);
+    }
+
+    /**
+     * Takes a sheet out of the workbook. The sheet must not refer to other sheets, nor other sheets to it.
+     * @param theName The name of the sheet.
+     * @throws IllegalArgumentException When the workbook has no sheet of the given name.
+     * @throws IllegalStateException When the sheet refers to other sheets, or other sheets refer to it.
+     */
+    public void removeSheet(final String theName) {
+        Spreadsheet sheet = mySheets.get(theName);
+        if (sheet == null) {
+            throw new IllegalArgumentException("Unknown Sheet");
+        }
+        if (myDependents.containsKey(sheet) || myPrecedentSheets.containsKey(sheet)) {
+            throw new IllegalStateException("Sheet in use");
+        }
+
+        mySheets.remove(theName);
+        sheet.removeSheetListener(mySheetListeners.remove(sheet));
+        myChanges.remove(sheet);
+        sheet.setWorkbook(null);
+    }
+
+    /**
+     * @param theName The name of a sheet.
+     * @return The sheet of the given name, or null if there is none.
+     */
+    public Spreadsheet getSheet(final String theName) {
+        return mySheets.get(theName);
+    }
+
+    /**
+     * @return The names of the sheets, in the order they were added.
+     */
+    public List<String> getSheetNames() {
+        return List.copyOf(mySheets.keySet());
+    }
+
+    /**
+     * Lets you recalculate the components of a wave on multiple threads, one task per component.
+     * @param thePool The pool used for recalculation, or null to recalculate serially on the calling thread.
+     */
+    public void setRecalculationPool(final ForkJoinPool thePool) {
+        myRecalculationPool = thePool;
+    }
+
+    /**
+     * Re-evaluates the cells of every sheet that changed since the last recalculation, and every cell downstream of
+     * them on any sheet. Sheets that were edited or recalculated on their own are caught up as well.
+     * The sheets must not be changed by other threads while this runs.
+     * @throws IllegalStateException When a sheet contains a dependency loop.
+     */
+    public void recalculate() {
+        for (Spreadsheet sheet : mySheets.values()) {
+            propagateChanges(sheet, null);
+        }
+
+        for (List<List<Spreadsheet>> wave : getWaves()) {
+            if (myRecalculationPool != null && wave.size() > 1) {
+                myRecalculationPool.invoke(new WaveTask(wave, 0, wave.size()));
+            } else {
+                for (List<Spreadsheet> component : wave) {
+                    recalculate(component);
+                }
+            }
+
+            //Done between waves, so that no sheet is marked while it is being recalculated.
+            ExternalCell cell;
+            while ((cell = myDeferredCells.poll()) != null) {
+                cell.mySheet.markDirty(cell.myCell);
+            }
+        }
+    }
+
+    /**
+     * Registers or unregisters a reference from a cell of one sheet to a cell of another.
+     * @param theDependent The sheet of the referring cell.
+     * @param theDependentCell The packed coordinates of the referring cell.
+     * @param thePrecedent The sheet of the referenced cell.
+     * @param thePrecedentCell The packed coordinates of the referenced cell.
+     * @param isLinking True to register the reference, false to unregister it.
+     */
+    void link(final Spreadsheet theDependent, final long theDependentCell, final Spreadsheet thePrecedent,
+              final long thePrecedentCell, final boolean isLinking) {
+        ExternalCell dependent = new ExternalCell(theDependent, theDependentCell);
+        Map<Long, List<ExternalCell>> dependents =
+                myDependents.computeIfAbsent(thePrecedent, theKey -> new HashMap<>());
+        Map<Spreadsheet, Integer> counts = myPrecedentSheets.computeIfAbsent(theDependent, theKey -> new HashMap<>());
+
+        if (isLinking) {
+            dependents.computeIfAbsent(thePrecedentCell, theKey -> new ArrayList<>()).add(dependent);
+            counts.merge(thePrecedent, 1, Integer::sum);
+        } else {
+            List<ExternalCell> cells = dependents.get(thePrecedentCell);
+            cells.remove(dependent);
+            if (cells.isEmpty()) {
+                dependents.remove(thePrecedentCell);
+            }
+            if (counts.merge(thePrecedent, -1, Integer::sum) == 0) {
+                counts.remove(thePrecedent);
+            }
+        }
+
+        if (dependents.isEmpty()) {
+            myDependents.remove(thePrecedent);
+        }
+        if (counts.isEmpty()) {
+            myPrecedentSheets.remove(theDependent);
+        }
+    }
+
+    /**
+     * Checks that none of the given cells of a sheet depends on itself through the cells of other sheets.
+     * Loops within a single sheet are already rejected by the sheet's own dependency graph, and a loop through other
+     * sheets can only pass through the sheets of the same component, so only those are searched.
+     * @param theSheet The sheet.
+     * @param theCells The packed coordinates of the cells, as they are now placed.
+     * @throws IllegalStateException When a cell depends on itself, the message names the cells of the loop.
+     */
+    void checkLoops(final Spreadsheet theSheet, final long[] theCells) {
+        Set<Spreadsheet> component = new HashSet<>();
+        for (Spreadsheet sheet : getReachableSheets(theSheet)) {
+            if (getReachableSheets(sheet).contains(theSheet)) {
+                component.add(sheet);
+            }
+        }
+        if (component.size() == 1) {
+            return;
+        }
+
+        for (long cell : theCells) {
+            List<ExternalCell> loop = findLoop(new ExternalCell(theSheet, cell), component);
+            if (loop != null) {
+                throw new IllegalStateException(describeLoop(loop));
+            }
+        }
+    }
+
+    /**
+     * Helper method that finds the sheets that a sheet refers to, directly or through other sheets.
+     * @param theSheet The sheet.
+     * @return The sheets, including theSheet itself.
+     */
+    private Set<Spreadsheet> getReachableSheets(final Spreadsheet theSheet) {
+        Set<Spreadsheet> visited = new HashSet<>();
+        Deque<Spreadsheet> pending = new ArrayDeque<>();
+        pending.push(theSheet);
+
+        while (!pending.isEmpty()) {
+            Spreadsheet sheet = pending.pop();
+            if (visited.add(sheet) && myPrecedentSheets.containsKey(sheet)) {
+                pending.addAll(myPrecedentSheets.get(sheet).keySet());
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Helper method that searches the cells downstream of a cell for the cell itself.
+     * @param theStart The cell.
+     * @param theSheets The sheets that are searched.
+     * @return The cells of the loop, each referencing the next, starting and ending with theStart, or null if the
+     * cell does not depend on itself.
+     */
+    private List<ExternalCell> findLoop(final ExternalCell theStart, final Set<Spreadsheet> theSheets) {
+        Map<ExternalCell, ExternalCell> parentOf = new HashMap<>();
+        Deque<ExternalCell> pending = new ArrayDeque<>();
+        pending.push(theStart);
+
+        while (!pending.isEmpty()) {
+            ExternalCell cell = pending.pop();
+            for (ExternalCell dependent : getDependents(cell, theSheets)) {
+                if (dependent.equals(theStart)) {
+                    //Walking the parents back to the start visits each cell after the one it references.
+                    List<ExternalCell> loop = new ArrayList<>();
+                    loop.add(theStart);
+                    for (ExternalCell node = cell; !node.equals(theStart); node = parentOf.get(node)) {
+                        loop.add(node);
+                    }
+                    loop.add(theStart);
+                    return loop;
+                }
+                if (!parentOf.containsKey(dependent)) {
+                    parentOf.put(dependent, cell);
+                    pending.push(dependent);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Helper method that finds the cells that refer to a cell directly, on its own sheet and on other sheets.
+     * @param theCell The cell.
+     * @param theSheets The sheets whose cells are included.
+     * @return The dependents of the cell.
+     */
+    private List<ExternalCell> getDependents(final ExternalCell theCell, final Set<Spreadsheet> theSheets) {
+        List<ExternalCell> result = new ArrayList<>();
+        theCell.mySheet.forEachDependent(theCell.myCell,
+                theDependent -> result.add(new ExternalCell(theCell.mySheet, theDependent)));
+
+        Map<Long, List<ExternalCell>> dependents = myDependents.get(theCell.mySheet);
+        if (dependents != null && dependents.containsKey(theCell.myCell)) {
+            for (ExternalCell dependent : dependents.get(theCell.myCell)) {
+                if (theSheets.contains(dependent.mySheet)) {
+                    result.add(dependent);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Helper method that names the cells of a loop through several sheets.
+     * @param theLoop The cells of the loop, each referencing the next, starting and ending with the same cell.
+     * @return The error message, such as "There is a cycle: One!A1 -> Two!B1 -> One!A1".
+     */
+    private String describeLoop(final List<ExternalCell> theLoop) {
+        StringBuilder result = new StringBuilder("There is a cycle: ");
+        for (int i = 0; i < theLoop.size(); i++) {
+            ExternalCell cell = theLoop.get(i);
+            if (i > 0) {
+                result.append(" -> ");
+            }
+            for (Map.Entry<String, Spreadsheet> sheet : mySheets.entrySet()) {
+                if (sheet.getValue() == cell.mySheet) {
+                    result.append(sheet.getKey()).append(SheetUtility.SHEET_SEPARATOR);
+                }
+            }
+            result.append(SheetUtility.getCellAddress(
+                    new CellToken(SheetUtility.getPackedRow(cell.myCell), SheetUtility.getPackedColumn(cell.myCell))));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Helper method that recalculates the sheets of a component until they settle. Sheets that refer to each other
+     * are recalculated in turns, passing on their changes after each one, so that a cell that read a value of another
+     * sheet before it was up to date is evaluated again. Since no cell depends on itself, this always comes to an end.
+     * @param theComponent The sheets of the component.
+     */
+    private void recalculate(final List<Spreadsheet> theComponent) {
+        boolean isSettled = false;
+        while (!isSettled) {
+            for (Spreadsheet sheet : theComponent) {
+                sheet.recalculate();
+                propagateChanges(sheet, theComponent);
+            }
+
+            isSettled = true;
+            for (Spreadsheet sheet : theComponent) {
+                isSettled &= !sheet.hasDirtyCells();
+            }
+        }
+    }
+
+    /**
+     * Helper method that marks the cells of other sheets that refer to the changed cells of a sheet.
+     * @param theSheet The sheet whose changes are passed on.
+     * @param theComponent The sheets whose cells are marked right away, while the cells of the other sheets are
+     *                     deferred until the running wave is done, or null to mark every cell right away.
+     */
+    private void propagateChanges(final Spreadsheet theSheet, final List<Spreadsheet> theComponent) {
+        Queue<ChangeSet> queue = myChanges.get(theSheet);
+        ChangeSet changes;
+        while ((changes = queue.poll()) != null) {
+            Map<Long, List<ExternalCell>> dependents = myDependents.get(theSheet);
+            if (dependents == null) {
+                continue;
+            }
+
+            for (int i = 0; i < changes.size(); i++) {
+                List<ExternalCell> cells = dependents.get(changes.getPackedCell(i));
+                if (cells != null) {
+                    for (ExternalCell cell : cells) {
+                        if (theComponent == null || theComponent.contains(cell.mySheet)) {
+                            cell.mySheet.markDirty(cell.myCell);
+                        } else {
+                            myDeferredCells.add(cell);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method that groups the sheets into components of sheets that refer to each other, and the components
+     * into waves, so that every component only refers to components of earlier waves.
+     * @return The waves, in the order they must be recalculated.
+     */
+    private List<List<List<Spreadsheet>>> getWaves() {
+        WavePlanner planner = new WavePlanner();
+        for (Spreadsheet sheet : mySheets.values()) {
+            if (!planner.myIndexOf.containsKey(sheet)) {
+                planner.visit(sheet);
+            }
+        }
+        return planner.myWaves;
+    }
+
+    /** A cell of a particular sheet. */
+    private static final class ExternalCell {
+        /** The sheet. */
+        private final Spreadsheet mySheet;
+
+        /** The packed coordinates of the cell. */
+        private final long myCell;
+
+        /**
+         * The lone constructor for an ExternalCell.
+         * @param theSheet The sheet.
+         * @param theCell The packed coordinates of the cell.
+         */
+        private ExternalCell(final Spreadsheet theSheet, final long theCell) {
+            mySheet = theSheet;
+            myCell = theCell;
+        }
+
+        @Override
+        public boolean equals(final Object theOther) {
+            if (!(theOther instanceof ExternalCell)) {
+                return false;
+            }
+            ExternalCell other = (ExternalCell) theOther;
+            return mySheet == other.mySheet && myCell == other.myCell;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(mySheet) * 31 + Long.hashCode(myCell);
+        }
+    }
+
+    /**
+     * Finds the components of the sheets with Tarjan's algorithm, following references from each sheet to the sheets it
+     * refers to. A component is only complete once every component it refers to is, so components are placed into
+     * their waves as they are found.
+     */
+    private final class WavePlanner {
+        /** The order in which the sheets were first visited. */
+        private final Map<Spreadsheet, Integer> myIndexOf;
+
+        /** The earliest visited sheet that each sheet reaches through sheets that are not part of a component yet. */
+        private final Map<Spreadsheet, Integer> myLowOf;
+
+        /** The visited sheets that are not part of a component yet. */
+        private final Deque<Spreadsheet> myOpenSheets;
+
+        /** The wave of each sheet that is part of a component. */
+        private final Map<Spreadsheet, Integer> myWaveOf;
+
+        /** The waves of components found so far. */
+        private final List<List<List<Spreadsheet>>> myWaves;
+
+        /** The lone constructor for a WavePlanner. */
+        WavePlanner() {
+            myIndexOf = new HashMap<>();
+            myLowOf = new HashMap<>();
+            myOpenSheets = new ArrayDeque<>();
+            myWaveOf = new HashMap<>();
+            myWaves = new ArrayList<>();
+        }
+
+        /**
+         * Visits a sheet and every sheet it refers to that was not visited yet.
+         * @param theSheet The sheet.
+         */
+        private void visit(final Spreadsheet theSheet) {
+            int index = myIndexOf.size();
+            myIndexOf.put(theSheet, index);
+            myLowOf.put(theSheet, index);
+            myOpenSheets.push(theSheet);
+
+            Map<Spreadsheet, Integer> precedents = myPrecedentSheets.getOrDefault(theSheet, Map.of());
+            for (Spreadsheet precedent : precedents.keySet()) {
+                if (!myIndexOf.containsKey(precedent)) {
+                    visit(precedent);
+                    myLowOf.put(theSheet, Math.min(myLowOf.get(theSheet), myLowOf.get(precedent)));
+                } else if (!myWaveOf.containsKey(precedent)) {
+                    myLowOf.put(theSheet, Math.min(myLowOf.get(theSheet), myIndexOf.get(precedent)));
+                }
+            }
+
+            if (myLowOf.get(theSheet) == index) {
+                List<Spreadsheet> component = new ArrayList<>();
+                Spreadsheet sheet;
+                do {
+                    sheet = myOpenSheets.pop();
+                    component.add(sheet);
+                } while (sheet != theSheet);
+                place(component);
+            }
+        }
+
+        /**
+         * Places a complete component into the wave after the latest wave of the components it refers to.
+         * @param theComponent The sheets of the component.
+         */
+        private void place(final List<Spreadsheet> theComponent) {
+            int wave = 0;
+            for (Spreadsheet sheet : theComponent) {
+                for (Spreadsheet precedent : myPrecedentSheets.getOrDefault(sheet, Map.of()).keySet()) {
+                    if (!theComponent.contains(precedent)) {
+                        wave = Math.max(wave, myWaveOf.get(precedent) + 1);
+                    }
+                }
+            }
+
+            for (Spreadsheet sheet : theComponent) {
+                myWaveOf.put(sheet, wave);
+            }
+            while (myWaves.size() <= wave) {
+                myWaves.add(new ArrayList<>());
+            }
+            myWaves.get(wave).add(theComponent);
+        }
+    }
+
+    /** A task that recalculates part of a single wave, splitting itself until each part is a single component. */
+    private final class WaveTask extends RecursiveAction {
+        /** The components of the wave. */
+        private final List<List<Spreadsheet>> myWave;
+
+        /** The index of the first component to be recalculated. */
+        private final int myStart;
+
+        /** The index just after the last component to be recalculated. */
+        private final int myEnd;
+
+        /**
+         * The lone constructor for a WaveTask.
+         * @param theWave The components of the wave.
+         * @param theStart The index of the first component to be recalculated.
+         * @param theEnd The index just after the last component to be recalculated.
+         */
+        WaveTask(final List<List<Spreadsheet>> theWave, final int theStart, final int theEnd) {
+            myWave = theWave;
+            myStart = theStart;
+            myEnd = theEnd;
+        }
+
+        @Override
+        protected void compute() {
+            if (myEnd - myStart == 1) {
+                recalculate(myWave.get(myStart));
+            } else {
+                int middle = (myStart + myEnd) >>> 1;
+                invokeAll(new WaveTask(myWave, myStart, middle), new WaveTask(myWave, middle, myEnd));
+            }
+        }
+    }
+}
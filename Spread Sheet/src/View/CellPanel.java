@@ -1,111 +1,126 @@
 package View;
 
-import Model.CellToken;
-import Model.SheetUtility;
+import Model.ChangeSet;
 import Model.Spreadsheet;
-import java.awt.GridBagConstraints;
-import java.awt.GridBagLayout;
+import java.awt.Component;
 
 import javax.swing.*;
+import javax.swing.table.JTableHeader;
 /**
- * The Cell Panel. Can generate a grid of cells of any positive dimensions.
+ * The Cell Panel. Displays a spreadsheet of any positive dimensions as a table.
+ * Only the rows and columns within the visible viewport are painted, so the cost of the panel
+ * depends on the size of the screen rather than the size of the sheet.
  * @author Dillon Crookshank
  * @author Halim Lee
  * @author Thinh Le
- * @version 1.0
+ * @version 1.1
  */
-public class CellPanel extends JPanel {
-	/** The GridBagConstraints used to add every component. */
-	private final GridBagConstraints myGBC;
+public class CellPanel extends JScrollPane {
+	/** The pixel width of a single column, about the width of a 10 character text field. */
+	private static final int COLUMN_WIDTH = 110;
 
-	/** A matrix of references to text fields. */
-	private final JTextField[][] myCells;
+	/** The largest # of changed cells that are repainted one by one, larger changes repaint the whole viewport. */
+	private static final int MAX_CELL_UPDATES = 512;
 
-	/** The default constructor. Creates a sheet based on the default dimensions from the Spreadsheet class. */
-	public CellPanel() {
-		this(Spreadsheet.DEFAULT_ROWS, Spreadsheet.DEFAULT_COLUMNS);
-	}
+	/** The pixel width of the row labels. */
+	private static final int ROW_LABEL_WIDTH = 50;
+
+	/** The model that reads the cells from the spreadsheet. */
+	private final SheetTableModel myModel;
+
+	/** The table that paints the cells. */
+	private final JTable myTable;
 
 	/**
-	 * Creates a spreadsheet panel with custom dimensions.
-	 * @param theRows The # of rows in the spreadsheet.
-	 * @param theColumns The # of columns in the spreadsheet.
-	 * @throws IllegalArgumentException When the given dimensions are below the minimum defined in Model/Spreadsheet.java.
+	 * Creates a spreadsheet panel that displays the given sheet.
+	 * @param theSheet The spreadsheet to be displayed.
+	 * @throws IllegalArgumentException When the dimensions of the sheet are below the minimum defined in Model/Spreadsheet.java.
 	 */
-	public CellPanel(final int theRows, final int theColumns) {
-		if (theRows < Spreadsheet.MINIMUM_DIMENSION || theColumns < Spreadsheet.MINIMUM_DIMENSION) {
+	public CellPanel(final Spreadsheet theSheet) {
+		if (theSheet.getNumRows() < Spreadsheet.MINIMUM_DIMENSION
+				|| theSheet.getNumColumns() < Spreadsheet.MINIMUM_DIMENSION) {
 			throw new IllegalArgumentException("Dimensions too small.");
 		}
 
-		//Initialize the private fields.
-		myCells = new JTextField[theRows][theColumns];
-		myGBC = new GridBagConstraints();
-
-		//Initialize the layout
-		setLayout(new GridBagLayout());
-
-		//Create the column labels.
-		for (int j = 0; j < theColumns; j++) {
-			myGBC.gridx = j + 1;
-			myGBC.gridy = 0;
-
-			//Use existing code to generate column labels.
-			String columnAddress = SheetUtility.getCellAddress(new CellToken(0, j));
-			columnAddress = columnAddress.substring(0, columnAddress.length() - 1);
-
-			JLabel label = new JLabel(columnAddress);
-			label.setHorizontalAlignment(JLabel.CENTER);
-			this.add(label, myGBC);
+		//Initialize the table, the column labels come from the model.
+		myModel = new SheetTableModel(theSheet);
+		myTable = new JTable(myModel);
+		myTable.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+		myTable.setCellSelectionEnabled(true);
+		myTable.getTableHeader().setReorderingAllowed(false);
+		for (int j = 0; j < myModel.getColumnCount(); j++) {
+			myTable.getColumnModel().getColumn(j).setPreferredWidth(COLUMN_WIDTH);
 		}
+		setViewportView(myTable);
 
-		//Create the row labels.
-		for (int j = 0; j < theRows; j++) {
-			myGBC.gridx = 0;
-			myGBC.gridy = j + 1;
-			JLabel label = new JLabel(j + "  ");
-			label.setHorizontalAlignment(JLabel.CENTER);
-			this.add(label, myGBC);
-		}
+		//Create the row labels, a list renders only its visible rows as long as the cell size is fixed.
+		JList<Integer> rowLabels = new JList<>(new AbstractListModel<>() {
+			@Override
+			public int getSize() {
+				return theSheet.getNumRows();
+			}
 
-		//Create the grid of cells and place it on the panel.
-		myGBC.gridx = 1;
-		myGBC.gridy = 1;
-		this.add(innerGrid(theRows, theColumns), myGBC);
+			@Override
+			public Integer getElementAt(final int theIndex) {
+				return theIndex;
+			}
+		});
+		rowLabels.setFixedCellWidth(ROW_LABEL_WIDTH);
+		rowLabels.setFixedCellHeight(myTable.getRowHeight());
+		rowLabels.setFocusable(false);
+		rowLabels.setCellRenderer(new RowLabelRenderer(myTable.getTableHeader()));
+		setRowHeaderView(rowLabels);
 	}
 
 	/**
-	 * Lets you change the text of a specific cell's text field.
-	 * @param theText The new String to be in the cell.
-	 * @param theX The x coordinate of the cell.
-	 * @param theY The y coordinate of the cell.
-	 * @throws IllegalArgumentException If the given coordinates do not fall within the grid.
+	 * Changes whether the cells show their formulas or their values.
+	 * @param theShowFormulas True to show formulas, false to show values.
 	 */
-	public void setCell(final String theText, final int theX, final int theY) {
-		if (theX < 0 || theX >= myCells[0].length || theY < 0 || theY >= myCells.length) {
-			throw new IllegalArgumentException("Cell does not exist. ");
-		}
+	public void setShowFormulas(final boolean theShowFormulas) {
+		myModel.setShowFormulas(theShowFormulas);
+	}
 
-		myCells[theY][theX].setText(theText);
+	/** Repaints the cells with the current data of the spreadsheet. Should be called whenever the data changes. */
+	public void refresh() {
+		myModel.fireCellsUpdated();
 	}
 
 	/**
-	 * Helper method that creates the cells of the spreadsheet Panel.
-	 * @param theRows The # of rows in the spreadsheet.
-	 * @param theColumns The # of columns in the spreadsheet.
-	 * @return The newly created JPanel.
+	 * Repaints only the given cells, should be called whenever the data of some cells changes.
+	 * @param theChanges The cells whose value or formula changed.
 	 */
-	private JPanel innerGrid(final int theRows, final int theColumns) {
-		JPanel grid = new JPanel();
-		for (int y = 0; y < theRows; y++) {
-			for (int x = 0; x < theColumns; x++) {
-				myGBC.gridx = x + 1;
-				myGBC.gridy = y + 1;
-				myCells[y][x] = new JTextField(10);
-				myCells[y][x].setEditable(false);
-				this.add(myCells[y][x], myGBC);
-			}
+	public void updateCells(final ChangeSet theChanges) {
+		if (theChanges.size() > MAX_CELL_UPDATES) {
+			refresh();
+			return;
+		}
+
+		for (int i = 0; i < theChanges.size(); i++) {
+			myModel.fireTableCellUpdated(theChanges.getRow(i), theChanges.getColumn(i));
 		}
-		return grid;
 	}
-}
 
+	/** Renders the row labels in the same style as the column labels. */
+	private static class RowLabelRenderer extends JLabel implements ListCellRenderer<Integer> {
+		/**
+		 * Creates a renderer styled after the given header.
+		 * @param theHeader The column header of the table.
+		 */
+		RowLabelRenderer(final JTableHeader theHeader) {
+			setOpaque(true);
+			setHorizontalAlignment(CENTER);
+			setBorder(UIManager.getBorder("TableHeader.cellBorder"));
+			setFont(theHeader.getFont());
+			setForeground(theHeader.getForeground());
+			setBackground(theHeader.getBackground());
+		}
+
+		@Override
+		public Component getListCellRendererComponent(final JList<? extends Integer> theList, final Integer theValue,
+													  final int theIndex, final boolean isSelected,
+													  final boolean hasFocus) {
+			setText(String.valueOf(theValue));
+			return this;
+		}
+	}
+}
@@ -5,6 +5,7 @@ import javax.swing.event.DocumentListener;
 import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JTextField;
 
 /**
@@ -40,6 +41,9 @@ public class FormulaPanel extends JPanel {
 	/** The Clear button. */
 	private final JButton myClearButton;
 
+	/** The progress bar of the running recalculation, hidden while the sheet is idle. */
+	private final JProgressBar myProgressBar;
+
 	/** The lone constructor. Creates a new formula Panel. */
 	public FormulaPanel() {
 		//Initialize Address text field with a label.
@@ -62,6 +66,12 @@ public class FormulaPanel extends JPanel {
 
 		myClearButton = new JButton(CLEAR);
 		add(myClearButton);
+
+		//Initialize the progress bar.
+		myProgressBar = new JProgressBar();
+		myProgressBar.setStringPainted(true);
+		myProgressBar.setVisible(false);
+		add(myProgressBar);
 	}
 
 	/**
@@ -96,6 +106,23 @@ public class FormulaPanel extends JPanel {
 		myFormulaField.setText(theFormula);
 	}
 
+	/**
+	 * Shows the progress of a recalculation.
+	 * @param theDone The # of cells evaluated so far.
+	 * @param theTotal The # of cells that will be evaluated, 0 to hide the progress bar.
+	 */
+	public void setProgress(final int theDone, final int theTotal) {
+		if (theTotal <= 0) {
+			myProgressBar.setVisible(false);
+			return;
+		}
+
+		myProgressBar.setMaximum(theTotal);
+		myProgressBar.setValue(theDone);
+		myProgressBar.setString("Calculating " + theDone + " / " + theTotal);
+		myProgressBar.setVisible(true);
+	}
+
 	/**
 	 * Lets you activate and deactivate specific components within the FormulaPanel.
 	 * For TextFields, The field isEditable is mutated.
@@ -11,6 +11,7 @@ import javax.swing.KeyStroke;
 /**
  * The menu bar component. Creates the following menu structure:
  * File Menu -> Clear, Quit, New, Save.
+ * Edit Menu -> Undo, Redo.
  * View Menu -> View Values, View Formulas, Increase Precision, Decrease Precision.
  * @author Dillon Crookshank
  * @author Halim Lee
@@ -34,6 +35,12 @@ public class MenuBar extends JMenuBar {
 	/** The command associated with the Save option. */
 	public static final String SAVE = "Save";
 
+	/** The command associated with the Undo option. */
+	public static final String UNDO = "Undo";
+
+	/** The command associated with the Redo option. */
+	public static final String REDO = "Redo";
+
 	/** The command associated with the View Values option. */
 	public static final String VIEW_VALUES = "View Values";
 
@@ -61,6 +68,12 @@ public class MenuBar extends JMenuBar {
 	/** The Save option. */
 	private final JMenuItem mySaveOption;
 
+	/** The Undo option. */
+	private final JMenuItem myUndoOption;
+
+	/** The Redo option. */
+	private final JMenuItem myRedoOption;
+
 	/** The View Values option. */
 	private final JMenuItem myValueOption;
 
@@ -109,6 +122,24 @@ public class MenuBar extends JMenuBar {
 		//Finish initializing the File menu.
 		this.add(fileMenu);
 
+		//Initialize the Edit menu.
+		JMenu editMenu = new JMenu("Edit");
+
+		//Initialize the Undo option.
+		myUndoOption = new JMenuItem(UNDO);
+		myUndoOption.setAccelerator(
+				KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK));
+		editMenu.add(myUndoOption);
+
+		//Initialize the Redo option.
+		myRedoOption = new JMenuItem(REDO);
+		myRedoOption.setAccelerator(
+				KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK));
+		editMenu.add(myRedoOption);
+
+		//Finish initializing the Edit menu.
+		this.add(editMenu);
+
 		//Initialize the View menu.
 		JMenu viewMenu = new JMenu("View");
 
@@ -137,7 +168,7 @@ public class MenuBar extends JMenuBar {
 
 	/**
 	 * Lets you activate and deactivate specific menu options within the Menu Bar.
-	 * @param theOption Use one of the following static fields: CLEAR, QUIT, NEW, OPEN, SAVE,
+	 * @param theOption Use one of the following static fields: CLEAR, QUIT, NEW, OPEN, SAVE, UNDO, REDO,
 	 *                     VIEW_VALUES, VIEW_FORMULAS, INCREASE_PRECISION, DECREASE_PRECISION.
 	 * @param isEnabled True if the given menu option should be enabled. False otherwise.
 	 */
@@ -148,6 +179,8 @@ public class MenuBar extends JMenuBar {
 			case NEW -> myNewOption.setEnabled(isEnabled);
 			case OPEN -> myOpenOption.setEnabled(isEnabled);
 			case SAVE -> mySaveOption.setEnabled(isEnabled);
+			case UNDO -> myUndoOption.setEnabled(isEnabled);
+			case REDO -> myRedoOption.setEnabled(isEnabled);
 			case VIEW_VALUES -> myValueOption.setEnabled(isEnabled);
 			case VIEW_FORMULAS -> myFormulaOption.setEnabled(isEnabled);
 			case INCREASE_PRECISION -> myIncrementOption.setEnabled(isEnabled);
@@ -162,6 +195,8 @@ public class MenuBar extends JMenuBar {
 		myOpenOption.addActionListener(theListener);
 		mySaveOption.addActionListener(theListener);
 		myQuitOption.addActionListener(theListener);
+		myUndoOption.addActionListener(theListener);
+		myRedoOption.addActionListener(theListener);
 		myValueOption.addActionListener(theListener);
 		myFormulaOption.addActionListener(theListener);
 		myIncrementOption.addActionListener(theListener);
@@ -0,0 +1,86 @@
+package View;
+
+import Model.CellToken;
+import Model.SheetUtility;
+import Model.Spreadsheet;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * The table model behind the Cell Panel. Reads every value directly from the spreadsheet,
+ * so only the cells that the table actually paints are ever formatted.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+class SheetTableModel extends AbstractTableModel {
+	/** The sheet that is displayed. */
+	private final Spreadsheet mySheet;
+
+	/** The labels of each column, computed once. */
+	private final String[] myColumnNames;
+
+	/** Determines if formulas should be shown in cells instead of values. */
+	private boolean myShowFormulas;
+
+	/**
+	 * Creates a model that displays the given sheet.
+	 * @param theSheet The sheet to be displayed.
+	 */
+	SheetTableModel(final Spreadsheet theSheet) {
+		mySheet = theSheet;
+
+		//Use existing code to generate column labels.
+		myColumnNames = new String[theSheet.getNumColumns()];
+		CellToken cell = new CellToken(0, 0);
+		for (int j = 0; j < myColumnNames.length; j++) {
+			cell.setColumn(j);
+			String columnAddress = SheetUtility.getCellAddress(cell);
+			myColumnNames[j] = columnAddress.substring(0, columnAddress.length() - 1);
+		}
+	}
+
+	/**
+	 * Changes whether the cells show their formulas or their values.
+	 * @param theShowFormulas True to show formulas, false to show values.
+	 */
+	void setShowFormulas(final boolean theShowFormulas) {
+		if (myShowFormulas != theShowFormulas) {
+			myShowFormulas = theShowFormulas;
+			fireCellsUpdated();
+		}
+	}
+
+	/** Notifies the table that the data of every cell may have changed, without resetting the selection. */
+	void fireCellsUpdated() {
+		fireTableRowsUpdated(0, getRowCount() - 1);
+	}
+
+	@Override
+	public int getRowCount() {
+		return mySheet.getNumRows();
+	}
+
+	@Override
+	public int getColumnCount() {
+		return myColumnNames.length;
+	}
+
+	@Override
+	public String getColumnName(final int theColumn) {
+		return myColumnNames[theColumn];
+	}
+
+	@Override
+	public Class<?> getColumnClass(final int theColumn) {
+		return String.class;
+	}
+
+	@Override
+	public Object getValueAt(final int theRow, final int theColumn) {
+		if (myShowFormulas) {
+			return mySheet.getCellFormula(theRow, theColumn);
+		}
+		return mySheet.getCellValue(theRow, theColumn);
+	}
+}
@@ -0,0 +1,143 @@
+package Model;
+
+import java.util.Random;
+import java.util.Scanner;
+
+/**
+ * Generates the sheets used by the benchmarks, in the same text format as Spreadsheet.toString().
+ * Three dependency shapes are available:
+ * a long chain where every cell references the one before it,
+ * a wide fan-out where every cell references the first cell,
+ * and a random DAG where every cell references a few random earlier cells.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+final class BenchmarkSheets {
+    /** Every cell references the cell before it. */
+    static final String CHAIN = "chain";
+
+    /** Every cell references the first cell. */
+    static final String FAN_OUT = "fanOut";
+
+    /** Every cell references up to three random earlier cells. */
+    static final String RANDOM_DAG = "randomDag";
+
+    /** Every cell combines the two cells to its left, so each column holds one relative formula filled down. */
+    static final String FILL_DOWN = "fillDown";
+
+    /** The # of columns of every generated sheet. */
+    static final int COLUMNS = 20;
+
+    /** The seed used for the random DAG, so that every run benchmarks the same sheet. */
+    private static final long SEED = 42;
+
+    /** Utility class, no instances. */
+    private BenchmarkSheets() {}
+
+    /**
+     * Generates a sheet. Cells are filled in row-major order.
+     * @param theShape One of CHAIN, FAN_OUT, RANDOM_DAG or FILL_DOWN.
+     * @param theCells The # of filled cells.
+     * @return The sheet in the format of Spreadsheet.toString().
+     */
+    static String generate(final String theShape, final int theCells) {
+        Random random = new Random(SEED);
+        int rows = Math.max(Spreadsheet.MINIMUM_DIMENSION, (theCells + COLUMNS - 1) / COLUMNS);
+
+        StringBuilder result = new StringBuilder();
+        result.append(rows).append(" ").append(COLUMNS).append("\n");
+
+        for (int i = 0; i < theCells; i++) {
+            result.append(address(i)).append(" ");
+
+            switch (theShape) {
+                case CHAIN -> result.append(i == 0 ? "1" : address(i - 1) + " + 1");
+                case FAN_OUT -> result.append(i == 0 ? "2" : address(0) + " * " + (i % 7 + 1));
+                case RANDOM_DAG -> {
+                    if (i < COLUMNS) {
+                        result.append(random.nextInt(100));
+                    } else {
+                        result.append("(").append(address(random.nextInt(i)))
+                                .append(" + ").append(address(random.nextInt(i)))
+                                .append(") / 2 - ").append(address(random.nextInt(i)))
+                                .append(" * 3 + ").append(random.nextInt(10));
+                    }
+                }
+                case FILL_DOWN -> {
+                    if (i % COLUMNS < 2) {
+                        result.append(random.nextInt(100));
+                    } else {
+                        result.append(address(i - 2)).append(" * 2 + ").append(address(i - 1)).append(" - 3");
+                    }
+                }
+                default -> throw new IllegalArgumentException("Unknown shape: " + theShape);
+            }
+            result.append("\n");
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Extracts the formulas from a generated sheet.
+     * @param theSheet The sheet in the format of Spreadsheet.toString().
+     * @return The formula of every cell.
+     */
+    static String[] formulas(final String theSheet) {
+        String[] lines = theSheet.split("\n");
+        String[] result = new String[lines.length - 1];
+        for (int i = 1; i < lines.length; i++) {
+            result[i - 1] = lines[i].substring(lines[i].indexOf(' ') + 1);
+        }
+        return result;
+    }
+
+    /**
+     * Loads a sheet with the same parse loop as SheetController.openSpreadsheet(), then evaluates it.
+     * @param theSheet The sheet in the format of Spreadsheet.toString().
+     * @return The loaded and evaluated spreadsheet.
+     */
+    static Spreadsheet load(final String theSheet) {
+        Scanner sheetFile = new Scanner(theSheet);
+
+        //Dimensions of the sheet are always the first 2 pieces of data
+        int rows = Integer.parseInt(sheetFile.next());
+        int columns = Integer.parseInt(sheetFile.next());
+        sheetFile.nextLine();
+
+        Spreadsheet sheet = new Spreadsheet(rows, columns);
+
+        //Read each cell and fill the sheet
+        while (sheetFile.hasNext()) {
+            String dataLine = sheetFile.nextLine();
+
+            CellToken nextCell = new CellToken();
+            int index = 0;
+            index = SheetUtility.getCellToken(dataLine, index, nextCell);
+
+            sheet.changeCellFormula(nextCell, dataLine.substring(index).trim());
+        }
+        sheet.evaluateSheet();
+        sheetFile.close();
+
+        return sheet;
+    }
+
+    /**
+     * @param theIndex The row-major index of a cell.
+     * @return The cell at the given index.
+     */
+    static CellToken cell(final int theIndex) {
+        return new CellToken(theIndex / COLUMNS, theIndex % COLUMNS);
+    }
+
+    /**
+     * @param theIndex The row-major index of a cell.
+     * @return The address of the cell at the given index.
+     */
+    private static String address(final int theIndex) {
+        return SheetUtility.getCellAddress(cell(theIndex));
+    }
+}
@@ -0,0 +1,60 @@
+package Model;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures formula parsing with the single pass FormulaParser that the sheet uses.
+ * Each invocation parses every formula of a generated sheet once.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    /** The dependency shape of the generated sheet. */
+    @Param({BenchmarkSheets.CHAIN, BenchmarkSheets.FAN_OUT, BenchmarkSheets.RANDOM_DAG})
+    public String myShape;
+
+    /** The # of formulas parsed per invocation. */
+    @Param({"1000", "10000"})
+    public int mySize;
+
+    /** The formulas of the generated sheet. */
+    private String[] myFormulas;
+
+    /** Generates the formulas. */
+    @Setup(Level.Trial)
+    public void setUp() {
+        myFormulas = BenchmarkSheets.formulas(BenchmarkSheets.generate(myShape, mySize));
+    }
+
+    /**
+     * Parses every formula in a single pass and assembles it into a program, as the sheet does.
+     * @param theHole Consumes the results.
+     */
+    @Benchmark
+    public void singlePass(final Blackhole theHole) {
+        for (String formula : myFormulas) {
+            theHole.consume(FormulaProgram.compile(formula, 0, 0));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package Model;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures sorting and evaluation of a loaded sheet:
+ * Spreadsheet.topologicalSort(), a full evaluateSheet(), and single cell edits through changeCellFormulaAndRecalculate(...).
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecalcBenchmark {
+    /** The dependency shape of the generated sheet. */
+    @Param({BenchmarkSheets.CHAIN, BenchmarkSheets.FAN_OUT, BenchmarkSheets.RANDOM_DAG,
+            BenchmarkSheets.FILL_DOWN})
+    public String myShape;
+
+    /** The # of filled cells. */
+    @Param({"1000", "10000", "100000"})
+    public int mySize;
+
+    /** The loaded sheet. */
+    private Spreadsheet mySheet;
+
+    /** The first cell of the sheet, which the rest of the sheet depends on. */
+    private CellToken mySourceCell;
+
+    /** The last cell of the sheet, which nothing depends on. */
+    private CellToken myLeafCell;
+
+    /** The formula of the last cell. */
+    private String myLeafFormula;
+
+    /** Alternates the edits, so that every edit really changes a value. */
+    private boolean myToggle;
+
+    /** Generates and loads the sheet. */
+    @Setup(Level.Trial)
+    public void setUp() {
+        mySheet = BenchmarkSheets.load(BenchmarkSheets.generate(myShape, mySize));
+        mySourceCell = BenchmarkSheets.cell(0);
+        myLeafCell = BenchmarkSheets.cell(mySize - 1);
+        myLeafFormula = mySheet.getCellFormula(myLeafCell);
+    }
+
+    /**
+     * Sorts every filled cell into evaluation order.
+     * @return The evaluation order.
+     */
+    @Benchmark
+    public long[] topologicalSort() {
+        return mySheet.topologicalSort();
+    }
+
+    /** Re-evaluates the entire sheet. */
+    @Benchmark
+    public void evaluateSheet() {
+        mySheet.evaluateSheet();
+    }
+
+    /** Edits the first cell, which has to re-evaluate everything downstream of it. */
+    @Benchmark
+    public void changeSourceCell() {
+        myToggle = !myToggle;
+        mySheet.changeCellFormulaAndRecalculate(mySourceCell, myToggle ? "3" : "4");
+    }
+
+    /** Edits the last cell, which only has to re-evaluate itself. */
+    @Benchmark
+    public void changeLeafCell() {
+        myToggle = !myToggle;
+        mySheet.changeCellFormulaAndRecalculate(myLeafCell, myToggle ? myLeafFormula : myLeafFormula + " + 1");
+    }
+}
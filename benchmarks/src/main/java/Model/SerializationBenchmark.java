@@ -0,0 +1,82 @@
+package Model;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures saving and opening sheets:
+ * Spreadsheet.toString(), the original cell-by-cell open loop, and SheetLoader, each including the final evaluation.
+ * @author Dillon Crookshank
+ * @author Halim Lee
+ * @author Thinh Le
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+    /** The dependency shape of the generated sheet. */
+    @Param({BenchmarkSheets.CHAIN, BenchmarkSheets.FAN_OUT, BenchmarkSheets.RANDOM_DAG})
+    public String myShape;
+
+    /** The # of filled cells. */
+    @Param({"1000", "10000", "100000"})
+    public int mySize;
+
+    /** The sheet in its saved format. */
+    private String mySavedSheet;
+
+    /** The loaded sheet. */
+    private Spreadsheet mySheet;
+
+    /** Generates and loads the sheet. */
+    @Setup(Level.Trial)
+    public void setUp() {
+        mySavedSheet = BenchmarkSheets.generate(myShape, mySize);
+        mySheet = BenchmarkSheets.load(mySavedSheet);
+    }
+
+    /**
+     * Serializes the sheet.
+     * @return The sheet in its saved format.
+     */
+    @Benchmark
+    public String save() {
+        return mySheet.toString();
+    }
+
+    /**
+     * Parses and evaluates the saved sheet.
+     * @return The loaded sheet.
+     */
+    @Benchmark
+    public Spreadsheet open() {
+        return BenchmarkSheets.load(mySavedSheet);
+    }
+
+    /**
+     * Parses and evaluates the saved sheet with the bulk loader.
+     * @return The loaded sheet.
+     * @throws IOException Never, the sheet is read from memory.
+     */
+    @Benchmark
+    public Spreadsheet openWithLoader() throws IOException {
+        return SheetLoader.load(new StringReader(mySavedSheet));
+    }
+}